@@ -0,0 +1,117 @@
+package com.weather.aggregation;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Admission control for the aggregation server.
+// Caps open connections and requests being processed, and rate limits each client
+// address with a token bucket. Anything over a limit is turned away with a
+// Retry-After hint instead of being queued, so a stampede of retrying content
+// servers cannot push the server into thrashing.
+//
+// Limits come from AggregationServer.Config, where main() reads them from system properties:
+//   aggregation.maxConnections    open connections (default 1024)
+//   aggregation.maxInFlight       requests being processed (default 256)
+//   aggregation.clientRate        requests per second per client, 0 disables (default 0)
+//   aggregation.clientBurst       token bucket size per client (default 2 * clientRate)
+//   aggregation.retryAfterSeconds Retry-After sent when a connection/in-flight limit is hit (default 1)
+public class AdmissionController {
+
+    private final Semaphore connections;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final double clientRate;
+    private final double clientBurst;
+    private final long retryAfterSeconds;
+    private final ConcurrentHashMap<InetAddress, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+
+    public AdmissionController(int maxConnections, int maxInFlight, double clientRate, double clientBurst,
+                               long retryAfterSeconds) {
+        this.connections = new Semaphore(maxConnections);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.clientRate = clientRate;
+        this.clientBurst = Math.max(1, clientBurst);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    // Called for every accepted socket; false means the connection must be rejected
+    public boolean tryOpenConnection() {
+        return connections.tryAcquire();
+    }
+
+    public void connectionClosed() {
+        connections.release();
+    }
+
+    // Admit one request from the given client.
+    // Returns 0 if admitted (endRequest() must then be called), otherwise the number of
+    // seconds the client should wait before retrying.
+    public long admitRequest(InetAddress client) {
+        if (clientRate > 0) {
+            TokenBucket bucket = clientBuckets.computeIfAbsent(client, c -> new TokenBucket(clientRate, clientBurst));
+            long waitNanos = bucket.tryTake();
+            if (waitNanos > 0) {
+                return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        if (!inFlight.tryAcquire()) {
+            return retryAfterSeconds;
+        }
+        return 0;
+    }
+
+    public void endRequest() {
+        inFlight.release();
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    // Drop buckets of clients that have been idle long enough to refill completely
+    public void evictIdleClients() {
+        clientBuckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    private static class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        // Take a token; returns 0 on success, otherwise nanoseconds until one is available
+        synchronized long tryTake() {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / ratePerNano);
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+        }
+    }
+}
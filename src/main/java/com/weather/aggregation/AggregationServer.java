@@ -2,60 +2,509 @@ package com.weather.aggregation;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+// Aggregation server: stores station readings from HTTP PUT (and the optional binary
+// ingest listener) and serves them with GET.
+// Every instance owns its store, Lamport clock, metrics and admission control, so any
+// number of isolated servers can run in one JVM. main() runs one configured from
+// system properties; inProcessClient() lets code in the same JVM call the request
+// handlers directly, without sockets.
 public class AggregationServer {
-    private static final int PORT = 4567;
-    private static final ConcurrentHashMap<String, WeatherEntry> weatherData = new ConcurrentHashMap<>();
-    private static final LamportClock lamportClock = new LamportClock(); // Initialize Lamport clock
+
+    // Server settings. new Config() gives the defaults (binary listener off);
+    // fromSystemProperties() applies the -Daggregation.* overrides used by main().
+    public static class Config {
+        int port = 4567;
+        int binaryPort = 0; // binary ingest listener, disabled when not positive
+        long ttlMs = WeatherEntry.EXPIRY_MS;
+        long expiryIntervalMs = 5000;
+        String store = "heap";
+        int slabBytes = 4 << 20; // off-heap store slab size (see OffHeapStationStore)
+        boolean dedupPuts = true;
+        int maxHeaderBytes = 8192; // larger requests are answered with 413
+        int maxBodyBytes = 1 << 20;
+        // A connection that sends nothing for this long is closed, giving back its connection
+        // permit: an HTTP request still being read, or a binary connection between frames
+        int readTimeoutMs = 30_000;
+        Path historyDir; // expired readings are archived here (see HistoryStore); null discards them
+        long historyPartitionMs = 3_600_000;
+        long historyRetentionMs = 14 * 24 * 3_600_000L;
+        long historyCompactionIntervalMs = 600_000;
+        int acceptors = Math.min(4, Runtime.getRuntime().availableProcessors()); // see HttpListener
+        int backlog = 1024;
+        boolean reusePort = true;
+        boolean tcpNoDelay = true;
+        int sendBufferBytes = 0; // 0 keeps the OS default
+        int receiveBufferBytes = 0;
+        int parallelGetThreshold = 20_000; // stations; larger GET responses are encoded in parallel
+        int serializationThreads = Runtime.getRuntime().availableProcessors();
+        // Admission control (see AdmissionController)
+        int maxConnections = 1024;
+        int maxInFlight = 256;
+        double clientRate = 0; // requests per second per client, 0 disables
+        double clientBurst = 0; // token bucket size per client, 0 for twice clientRate
+        long retryAfterSeconds = 1;
+
+        public static Config fromSystemProperties() {
+            Config config = new Config();
+            config.port = Integer.getInteger("aggregation.port", config.port);
+            config.binaryPort = Integer.getInteger("aggregation.binaryPort", 4568);
+            config.ttlMs = Long.getLong("aggregation.ttlMs", config.ttlMs);
+            config.expiryIntervalMs = Long.getLong("aggregation.expiryIntervalMs", config.expiryIntervalMs);
+            config.store = System.getProperty("aggregation.store", config.store);
+            config.slabBytes = Integer.getInteger("aggregation.slabBytes", config.slabBytes);
+            config.dedupPuts = Boolean.parseBoolean(System.getProperty("aggregation.dedupPuts", "true"));
+            config.maxHeaderBytes = Integer.getInteger("aggregation.maxHeaderBytes", config.maxHeaderBytes);
+            config.maxBodyBytes = Integer.getInteger("aggregation.maxBodyBytes", config.maxBodyBytes);
+            config.readTimeoutMs = Integer.getInteger("aggregation.readTimeoutMs", config.readTimeoutMs);
+            String historyDir = System.getProperty("aggregation.historyDir");
+            config.historyDir = historyDir != null ? Paths.get(historyDir) : null;
+            config.historyPartitionMs = Long.getLong("aggregation.historyPartitionMs", config.historyPartitionMs);
+            config.historyRetentionMs = Long.getLong("aggregation.historyRetentionMs", config.historyRetentionMs);
+            config.historyCompactionIntervalMs = Long.getLong("aggregation.historyCompactionIntervalMs",
+                    config.historyCompactionIntervalMs);
+            config.acceptors = Integer.getInteger("aggregation.acceptors", config.acceptors);
+            config.backlog = Integer.getInteger("aggregation.backlog", config.backlog);
+            config.reusePort = Boolean.parseBoolean(System.getProperty("aggregation.reusePort", "true"));
+            config.tcpNoDelay = Boolean.parseBoolean(System.getProperty("aggregation.tcpNoDelay", "true"));
+            config.sendBufferBytes = Integer.getInteger("aggregation.sendBufferBytes", config.sendBufferBytes);
+            config.receiveBufferBytes = Integer.getInteger("aggregation.receiveBufferBytes", config.receiveBufferBytes);
+            config.parallelGetThreshold = Integer.getInteger("aggregation.parallelGetThreshold",
+                    config.parallelGetThreshold);
+            config.serializationThreads = Integer.getInteger("aggregation.serializationThreads",
+                    config.serializationThreads);
+            config.maxConnections = Integer.getInteger("aggregation.maxConnections", config.maxConnections);
+            config.maxInFlight = Integer.getInteger("aggregation.maxInFlight", config.maxInFlight);
+            config.clientRate = Double.parseDouble(System.getProperty("aggregation.clientRate",
+                    String.valueOf(config.clientRate)));
+            config.clientBurst = Double.parseDouble(System.getProperty("aggregation.clientBurst",
+                    String.valueOf(config.clientBurst)));
+            config.retryAfterSeconds = Long.getLong("aggregation.retryAfterSeconds", config.retryAfterSeconds);
+            return config;
+        }
+
+        // HTTP port; 0 picks a free port (see getPort())
+        public Config port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        // Number of HTTP acceptor threads
+        public Config acceptors(int acceptors) {
+            this.acceptors = acceptors;
+            return this;
+        }
+
+        // Length of the HTTP accept queue
+        public Config backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        // Give each acceptor its own SO_REUSEPORT socket where supported
+        public Config reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        // Socket buffer sizes for HTTP connections; 0 keeps the OS default
+        public Config socketBuffers(int sendBufferBytes, int receiveBufferBytes) {
+            this.sendBufferBytes = sendBufferBytes;
+            this.receiveBufferBytes = receiveBufferBytes;
+            return this;
+        }
+
+        // Station count from which GET responses are encoded in partitions on
+        // serializationThreads threads (see StationStore.toJsonParts)
+        public Config parallelGet(int parallelGetThreshold, int serializationThreads) {
+            this.parallelGetThreshold = parallelGetThreshold;
+            this.serializationThreads = serializationThreads;
+            return this;
+        }
+
+        public Config binaryPort(int binaryPort) {
+            this.binaryPort = binaryPort;
+            return this;
+        }
+
+        // How long a connection may stay silent before it is closed
+        public Config readTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        // How long a station is kept without a new PUT
+        public Config ttlMs(long ttlMs) {
+            this.ttlMs = ttlMs;
+            return this;
+        }
+
+        public Config expiryIntervalMs(long expiryIntervalMs) {
+            this.expiryIntervalMs = expiryIntervalMs;
+            return this;
+        }
+
+        // Storage engine, "heap" or "offheap" (see StationStore)
+        public Config store(String store) {
+            this.store = store;
+            return this;
+        }
+
+        // Size of each direct memory slab of the "offheap" store
+        public Config slabBytes(int slabBytes) {
+            this.slabBytes = slabBytes;
+            return this;
+        }
+
+        // Open connections and requests being processed before requests get 503
+        public Config admission(int maxConnections, int maxInFlight) {
+            this.maxConnections = maxConnections;
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        // Per-client token bucket; a burst of 0 allows twice the rate
+        public Config clientRate(double clientRate, double clientBurst) {
+            this.clientRate = clientRate;
+            this.clientBurst = clientBurst;
+            return this;
+        }
+
+        // Retry-After sent when the connection or in-flight limit is hit
+        public Config retryAfterSeconds(long retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+            return this;
+        }
+
+        public Config dedupPuts(boolean dedupPuts) {
+            this.dedupPuts = dedupPuts;
+            return this;
+        }
+
+        // Directory of the on-disk history of expired readings, served by GET /history
+        public Config historyDir(Path historyDir) {
+            this.historyDir = historyDir;
+            return this;
+        }
+
+        // Time span covered by each history segment
+        public Config historyPartitionMs(long historyPartitionMs) {
+            this.historyPartitionMs = historyPartitionMs;
+            return this;
+        }
+
+        public Config historyRetentionMs(long historyRetentionMs) {
+            this.historyRetentionMs = historyRetentionMs;
+            return this;
+        }
+    }
+
+    private static final AsyncLogger log = AsyncLogger.get();
+    private static final int MAX_HISTORY_RESULTS = 100_000;
+
+    private final Config config;
+    private final StationStore weatherStore;
+    private final LamportClock lamportClock = new LamportClock(); // Initialize Lamport clock
+    private final ServerMetrics metrics;
+    private final AdmissionController admission;
+    // Repeated PUT bodies only refresh the station's expiry (see PutDeduplicator)
+    private final PutDeduplicator deduplicator = new PutDeduplicator();
+    private final BufferPool bufferPool = new BufferPool(16 * 1024, 256);
+    // Encodes the partitions of large GET responses. Its daemon threads start on demand and
+    // exit when idle, so it is not shut down with the server: GETs in flight at stop() complete.
+    private final ForkJoinPool serializer;
+
+    // Small pool that answers connections over the limit with 503, off the acceptor threads
+    private final ThreadPoolExecutor rejector = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(256), runnable -> {
+                Thread thread = new Thread(runnable, "connection-rejector");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    ThreadFactory handlerThreads = Thread::new; // only replaced by tests
+
+    private volatile boolean running;
+    private boolean stopped;
+    private HttpListener listener;
+    private BinaryIngestServer binaryServer;
+    private Thread expiryChecker;
+    private HistoryStore history;
+    private Thread historyCompactor;
+
+    public AggregationServer(Config config) {
+        this.config = config;
+        this.weatherStore = StationStore.create(config.store, config.ttlMs, config.slabBytes);
+        this.metrics = new ServerMetrics(weatherStore::size, lamportClock);
+        this.admission = new AdmissionController(config.maxConnections, config.maxInFlight, config.clientRate,
+                config.clientBurst > 0 ? config.clientBurst : 2 * config.clientRate, config.retryAfterSeconds);
+        this.serializer = new ForkJoinPool(Math.max(1, config.serializationThreads));
+    }
 
     public static void main(String[] args) {
-        startExpiryChecker(); // Start the expiry checker thread
-        //main logic for server startup
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Aggregation server started on port " + PORT);
-
-            //accept client connections
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                new Thread(new ClientHandler(clientSocket)).start();
+        try {
+            new AggregationServer(Config.fromSystemProperties()).start();
+        } catch (IOException e) {
+            log.error("Aggregation server failed to start", e);
+        }
+    }
+
+    // Bind the listeners and start serving; the acceptor threads keep the JVM alive until stop()
+    public synchronized void start() throws IOException {
+        if (running || stopped) {
+            throw new IllegalStateException("Server already started");
+        }
+        if (config.historyDir != null) {
+            history = new HistoryStore(config.historyDir, config.historyPartitionMs, config.historyRetentionMs);
+        }
+        try {
+            listener = new HttpListener(config.port, config.acceptors, config.backlog, config.tcpNoDelay,
+                    config.sendBufferBytes, config.receiveBufferBytes, config.reusePort, this::accept);
+            listener.start();
+        } catch (IOException e) {
+            closeHistory();
+            throw e;
+        }
+        try {
+            if (config.binaryPort > 0) {
+                binaryServer = new BinaryIngestServer(config.binaryPort, config.readTimeoutMs, lamportClock,
+                        admission, metrics, (id, data) -> deduplicator.store(id, null, () -> storeWeatherEntry(id, data)),
+                        handlerThreads);
+                binaryServer.start();
+            }
+        } catch (IOException e) {
+            listener.stop();
+            closeHistory();
+            throw e;
+        }
+        running = true;
+
+        expiryChecker = new Thread(this::runExpiryChecker, "expiry-checker");
+        expiryChecker.setDaemon(true);
+        expiryChecker.start();
+        if (history != null) {
+            historyCompactor = new Thread(this::runHistoryCompactor, "history-compactor");
+            historyCompactor.setDaemon(true);
+            historyCompactor.start();
+        }
+        log.info("Aggregation server started on port " + getPort() + " with " + listener.getAcceptorThreads()
+                + " acceptors" + (listener.usesReusePort() ? " (SO_REUSEPORT)" : ""));
+    }
+
+    // Close the listeners and stop the background threads; requests in progress still complete.
+    // A stopped server cannot be started again.
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        stopped = true;
+        listener.stop();
+        if (binaryServer != null) {
+            binaryServer.stop();
+        }
+        expiryChecker.interrupt();
+        rejector.shutdownNow();
+        if (history != null) {
+            historyCompactor.interrupt();
+            try {
+                // Let a sweep in progress finish archiving before the history is sealed
+                expiryChecker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            closeHistory();
+        }
+        log.info("Aggregation server on port " + getPort() + " stopped");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Port the HTTP listener is bound to
+    public int getPort() {
+        return listener.getPort();
+    }
+
+    // Port of the binary ingest listener, or -1 when it is disabled
+    public int getBinaryPort() {
+        return binaryServer != null ? binaryServer.getPort() : -1;
+    }
+
+    // The instance's store, for callers that drive it directly (benchmarks, co-located producers)
+    public StationStore getStore() {
+        return weatherStore;
+    }
+
+    // A client that calls this server's request handlers in the same JVM
+    public InProcessClient inProcessClient() {
+        return new InProcessClient(this);
+    }
+
+    // Called on an acceptor thread for every new HTTP connection. If the handler thread
+    // cannot be started the permit is given back before the listener closes the socket.
+    private void accept(Socket clientSocket) {
+        if (!admission.tryOpenConnection()) {
+            rejectConnection(clientSocket);
+            return;
+        }
+        try {
+            handlerThreads.newThread(new ClientHandler(clientSocket)).start();
+        } catch (RuntimeException | Error e) {
+            admission.connectionClosed();
+            throw e;
+        }
+    }
+
+    // Answer a connection over the connection limit with 503 and close it.
+    // If even the rejector is backed up the socket is simply closed.
+    private void rejectConnection(Socket socket) {
+        metrics.recordRejectedConnection();
+        if (rejector.getQueue().remainingCapacity() == 0) {
+            closeQuietly(socket);
+            return;
+        }
+        try {
+            rejector.execute(() -> {
+                try (Socket s = socket) {
+                    s.setSoTimeout(1000);
+                    serviceUnavailable(admission.getRetryAfterSeconds()).writeTo(s.getOutputStream());
+                    s.shutdownOutput();
+                    // Drain what the client already sent so closing does not reset the connection
+                    InputStream in = s.getInputStream();
+                    byte[] discard = new byte[1024];
+                    while (in.read(discard) != -1) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // the client gave up first, nothing to do
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static HttpResponse serviceUnavailable(long retryAfterSeconds) {
+        return new HttpResponse(503).header("Retry-After", String.valueOf(retryAfterSeconds));
+    }
+
+    private void closeHistory() {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.close();
+        } catch (IOException e) {
+            log.error("Failed to close the history store", e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            // ignore
         }
     }
 
+    // Store a reading from either ingest path and tick the clock; returns the clock to report back
+    int storeWeatherEntry(String id, Map<String, String> data) {
+        weatherStore.put(id, data);
+        lamportClock.tick(); // Tick the clock for this PUT request
+        return lamportClock.getTime();
+    }
+
     //periodically check and remove expired weather data entries
-    public static void startExpiryChecker() {
-        new Thread(() -> {
-            while (true) {
-                try {
-                    // Sleep interval during testing
-                    Thread.sleep(5000);
-
-                    System.out.println("Running expiry checker...");
-
-                    // Check for and remove expired entries
-                    weatherData.entrySet().removeIf(entry -> {
-                        boolean expired = entry.getValue().isExpired();
-                        if (expired) {
-                            System.out.println("Removing expired entry: " + entry.getKey());
-                        }
-                        return expired;
-                    });
-
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break; // Exit if interrupted
+    private void runExpiryChecker() {
+        while (running) {
+            try {
+                Thread.sleep(config.expiryIntervalMs);
+
+                log.debug("Running expiry checker...");
+
+                ExpirySweepEvent sweepEvent = new ExpirySweepEvent();
+                sweepEvent.begin();
+
+                // Check for and remove expired entries
+                int scanned = weatherStore.size();
+                int expired = weatherStore.removeExpired((id, json) -> {
+                    deduplicator.forget(id);
+                    log.logLimited(AsyncLogger.Level.INFO, "expiry", "Removing expired entry: " + id);
+                    archive(id, json);
+                });
+                flushHistory();
+                metrics.recordExpirySweep(expired, config.expiryIntervalMs * 1_000_000L);
+                admission.evictIdleClients();
+
+                sweepEvent.end();
+                if (sweepEvent.shouldCommit()) {
+                    sweepEvent.scanned = scanned;
+                    sweepEvent.expired = expired;
+                    sweepEvent.commit();
                 }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break; // Exit if interrupted
             }
-        }).start();
+        }
     }
 
+    // Move an expired reading to the on-disk history, if there is one
+    private void archive(String id, byte[] json) {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.append(id, json);
+        } catch (IOException e) {
+            log.logLimited(AsyncLogger.Level.WARN, "history", "Failed to archive expired entry " + id, e);
+        }
+    }
+
+    private void flushHistory() {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.flush();
+        } catch (IOException e) {
+            log.logLimited(AsyncLogger.Level.WARN, "history", "Failed to write history", e);
+        }
+    }
+
+    //periodically merge closed history partitions and drop those past retention
+    private void runHistoryCompactor() {
+        while (running) {
+            try {
+                Thread.sleep(config.historyCompactionIntervalMs);
+                int removed = history.compact();
+                if (removed > 0) {
+                    log.info("History compaction removed " + removed + " segments, "
+                            + history.getDiskBytes() + " bytes on disk");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                log.error("History compaction failed", e);
+            }
+        }
+    }
 
     // Inner class to handle client requests
-    static class ClientHandler implements Runnable {
+    class ClientHandler implements Runnable {
         private final Socket clientSocket;
 
         public ClientHandler(Socket socket) {
@@ -64,114 +513,250 @@ public class AggregationServer {
 
         @Override
         public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                 PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-                String line = in.readLine();
-                if (line.startsWith("GET")) {
-                    handleGetRequest(out);
-                } else if (line.startsWith("PUT")) {
-                    handlePutRequest(in, out);
-                } else {
-                    out.println("HTTP/1.1 400 Bad Request");
+            metrics.connectionOpened();
+            RequestTrace trace = RequestTrace.start();
+            HttpRequestReader reader = null;
+            try (Socket socket = clientSocket;
+                 OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 8192)) {
+                socket.setSoTimeout(config.readTimeoutMs); // a silent client must not hold its permit
+                reader = new HttpRequestReader(socket.getInputStream(), bufferPool,
+                        config.maxHeaderBytes, config.maxBodyBytes);
+
+                trace.phase("read headers");
+                HttpRequest request;
+                try {
+                    request = reader.readHead();
+                } catch (HttpRequestException e) {
+                    writeError(socket, out, e);
+                    metrics.recordRequest(ServerMetrics.OTHER, e.getStatus(), 0);
+                    return;
+                }
+                if (request == null) {
+                    return;
                 }
+                long startTime = System.nanoTime();
+                trace.setMethod(request.getMethod());
+
+                HttpResponse response;
+                try {
+                    response = admitAndHandle(request, clientSocket.getInetAddress(), reader, trace);
+                } catch (HttpRequestException e) {
+                    writeError(socket, out, e);
+                    metrics.recordRequest(ServerMetrics.methodIndex(request.getMethod()), e.getStatus(),
+                            System.nanoTime() - startTime);
+                    return;
+                }
+
+                trace.phase("write");
+                response.writeTo(out);
+                metrics.recordRequest(ServerMetrics.methodIndex(request.getMethod()), response.getStatus(),
+                        System.nanoTime() - startTime);
 
             } catch (IOException e) {
-                e.printStackTrace();
+                log.logLimited(AsyncLogger.Level.WARN, "client-io", "I/O error handling client request: " + e);
+            } finally {
+                if (reader != null) {
+                    reader.release();
+                }
+                trace.finish();
+                metrics.connectionClosed();
+                admission.connectionClosed();
             }
         }
 
-        // Handle GET request to return stored weather data in JSON format
-        private void handleGetRequest(PrintWriter out) {
-            lamportClock.tick(); // Increment the clock on a GET request
-
-            StringBuilder responseJson = new StringBuilder();
-            responseJson.append("{");
+        // Answer a request that could not be read (413, 400) and stop reading from the client
+        private void writeError(Socket socket, OutputStream out, HttpRequestException e) throws IOException {
+            log.logLimited(AsyncLogger.Level.WARN, "bad-request", "Rejected request: " + e.getMessage());
+            new HttpResponse(e.getStatus()).writeTo(out);
+            socket.shutdownOutput();
+        }
+    }
 
-            int count = 0;
-            for (Map.Entry<String, WeatherEntry> entry : weatherData.entrySet()) {
-                String id = entry.getKey();
-                Map<String, String> data = entry.getValue().getData();
+    // Serve a request handed over in-process (see InProcessClient), with the same
+    // admission control, metrics and tracing as a request read from a socket
+    HttpResponse handleInProcess(HttpRequest request) {
+        long startTime = System.nanoTime();
+        RequestTrace trace = RequestTrace.start();
+        trace.setMethod(request.getMethod());
+        try {
+            HttpResponse response = admitAndHandle(request, InetAddress.getLoopbackAddress(), null, trace);
+            metrics.recordRequest(ServerMetrics.methodIndex(request.getMethod()), response.getStatus(),
+                    System.nanoTime() - startTime);
+            return response;
+        } catch (IOException e) {
+            // Only reading a body from a socket can fail
+            throw new UncheckedIOException(e);
+        } finally {
+            trace.finish();
+        }
+    }
 
-                responseJson.append("\"").append(id).append("\":");
-                responseJson.append(CustomJsonUtils.createJsonString(data));
+    // Apply admission control, read the body from reader (null when the request already
+    // carries it) and dispatch the request
+    private HttpResponse admitAndHandle(HttpRequest request, InetAddress client, HttpRequestReader reader,
+                                        RequestTrace trace) throws IOException {
+        if (isMetricsRequest(request)) {
+            // Metrics stay reachable while the server is overloaded
+            return handleRequest(request, trace);
+        }
 
-                count++;
-                if (count < weatherData.size()) {
-                    responseJson.append(",");
-                }
+        long retryAfter = admission.admitRequest(client);
+        if (retryAfter > 0) {
+            if (reader != null) {
+                reader.discardBody(request);
             }
-            responseJson.append("}");
-
-            // Return JSON data
-            out.println("HTTP/1.1 200 OK");
-            out.println("Content-Type: application/json");
-            out.println("Lamport-Clock: " + lamportClock.getTime());
-            out.println();
-            out.println(responseJson.toString());
-            out.flush();
-        }
-
-        // Handle PUT request to store incoming weather data
-        private void handlePutRequest(BufferedReader in, PrintWriter out) throws IOException {
-            StringBuilder payload = new StringBuilder();
-            String line;
-            int contentLength = 0;
-
-            // Read headers
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                if (line.startsWith("Content-Length:")) {
-                    contentLength = Integer.parseInt(line.split(": ")[1].trim());
-                } else if (line.startsWith("Lamport-Clock:")) {
-                    int receivedClock = Integer.parseInt(line.split(": ")[1].trim());
-                    lamportClock.update(receivedClock); // Update Lamport clock with received value
-                }
+            return serviceUnavailable(retryAfter);
+        }
+        try {
+            if (reader != null) {
+                trace.phase("read body");
+                reader.readBody(request);
             }
+            trace.setPayloadSize(request.getBodyLength());
+            return handleRequest(request, trace);
+        } finally {
+            admission.endRequest();
+        }
+    }
 
-            // Read the payload according to the content length
-            int readChars = 0;
-            while (readChars < contentLength) {
-                int c = in.read();
-                if (c == -1) break;
-                payload.append((char) c);
-                readChars++;
-            }
+    private static boolean isMetricsRequest(HttpRequest request) {
+        return request.getMethod().equals("GET") && isEndpoint(request.getPath(), "/metrics");
+    }
+
+    // The endpoint itself, with or without a query string, but not a longer path
+    private static boolean isEndpoint(String path, String endpoint) {
+        return path.startsWith(endpoint)
+                && (path.length() == endpoint.length() || path.charAt(endpoint.length()) == '?');
+    }
+
+    // Route a fully read request to its handler
+    HttpResponse handleRequest(HttpRequest request, RequestTrace trace) {
+        if (isMetricsRequest(request)) {
+            return handleMetricsRequest(trace);
+        } else if (request.getMethod().equals("GET") && isEndpoint(request.getPath(), "/history")) {
+            return handleHistoryRequest(request, trace);
+        } else if (request.getMethod().equals("GET")) {
+            return handleGetRequest(trace);
+        } else if (request.getMethod().equals("PUT")) {
+            return handlePutRequest(request, trace);
+        }
+        return new HttpResponse(400);
+    }
+
+    // Handle GET /metrics with the server metrics in Prometheus text format
+    private HttpResponse handleMetricsRequest(RequestTrace trace) {
+        trace.phase("serialize");
+        HttpResponse response = HttpResponse.text(200, "text/plain; version=0.0.4", metrics.render());
+        trace.setPayloadSize(response.getBodyLength());
+        return response;
+    }
+
+    // Handle GET request to return stored weather data in JSON format
+    private HttpResponse handleGetRequest(RequestTrace trace) {
+        lamportClock.tick(); // Increment the clock on a GET request
+
+        trace.phase("serialize");
+        HttpResponse response = new HttpResponse(200,
+                weatherStore.toJsonParts(serializer, config.parallelGetThreshold))
+                .header("Content-Type", "application/json")
+                .header("Lamport-Clock", String.valueOf(lamportClock.getTime()));
+        trace.setPayloadSize(response.getBodyLength());
+        return response;
+    }
+
+    // Handle GET /history?id=<station>&from=<epoch ms>&to=<epoch ms>&limit=<n> with archived
+    // readings (see HistoryStore.query); every parameter is optional
+    private HttpResponse handleHistoryRequest(HttpRequest request, RequestTrace trace) {
+        if (history == null) {
+            return new HttpResponse(404);
+        }
+        String id;
+        long from;
+        long to;
+        int limit;
+        try {
+            id = request.getQueryParameter("id");
+            from = parseParameter(request, "from", 0);
+            to = parseParameter(request, "to", Long.MAX_VALUE);
+            limit = (int) Math.min(parseParameter(request, "limit", 1000), MAX_HISTORY_RESULTS);
+        } catch (IllegalArgumentException e) {
+            // a malformed %-escape or number
+            return new HttpResponse(400);
+        }
+        if (id != null) {
+            trace.setStationId(id);
+        }
+
+        trace.phase("serialize");
+        try {
+            HttpResponse response = new HttpResponse(200, history.query(id, from, to, limit))
+                    .header("Content-Type", "application/json")
+                    .header("Lamport-Clock", String.valueOf(lamportClock.getTime()));
+            trace.setPayloadSize(response.getBodyLength());
+            return response;
+        } catch (IOException e) {
+            log.logLimited(AsyncLogger.Level.WARN, "history", "Failed to read history", e);
+            return new HttpResponse(500);
+        }
+    }
+
+    private static long parseParameter(HttpRequest request, String name, long defaultValue) {
+        String value = request.getQueryParameter(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
 
-            // Parse JSON and store it
+    // Handle PUT request to store incoming weather data
+    private HttpResponse handlePutRequest(HttpRequest request, RequestTrace trace) {
+        String clockHeader = request.getHeader("Lamport-Clock");
+        if (clockHeader != null) {
             try {
-                if (payload.toString().isEmpty() || payload.toString().equals("{}")) {
-                    out.println("HTTP/1.1 400 Bad Request");
-                    out.println();
-                    out.flush();
-                    return;
+                lamportClock.update(Integer.parseInt(clockHeader.trim())); // Update Lamport clock with received value
+            } catch (NumberFormatException e) {
+                return new HttpResponse(400);
+            }
+        }
+
+        // A byte-identical repeat of the station's last payload only restarts its expiry
+        PutDeduplicator.Digest digest = null;
+        String payloadId = null;
+        if (config.dedupPuts) {
+            payloadId = PutDeduplicator.extractId(request.getBodyBuffer(), request.getBodyOffset(), request.getBodyLength());
+            if (payloadId != null) {
+                trace.setStationId(payloadId);
+                digest = PutDeduplicator.digest(request.getBodyBuffer(), request.getBodyOffset(), request.getBodyLength());
+                if (deduplicator.refreshIfRepeat(payloadId, digest, weatherStore::touch)) {
+                    metrics.recordDuplicatePut();
+                    return new HttpResponse(201).header("Lamport-Clock", String.valueOf(lamportClock.getTime()));
                 }
+            }
+        }
 
-                Map<String, String> parsedData = CustomJsonUtils.parseJsonString(payload.toString());
+        // Parse JSON and store it
+        trace.phase("parse");
+        try {
+            String payload = request.getBodyText();
+            if (payload.isEmpty() || payload.equals("{}")) {
+                return new HttpResponse(400);
+            }
 
-                if (!parsedData.containsKey("id")) {
-                    out.println("HTTP/1.1 400 Bad Request");
-                    out.println();
-                    out.flush();
-                    return;
-                }
+            Map<String, String> parsedData = CustomJsonUtils.parseJsonString(payload);
 
-                // Store the parsed data in the weatherData map
-                String id = parsedData.get("id");
-                WeatherEntry weatherEntry = new WeatherEntry(parsedData);
-                weatherData.put(id, weatherEntry);
-
-                lamportClock.tick(); // Tick the clock for this PUT request
-
-                out.println("HTTP/1.1 201 Created");
-                out.println("Lamport-Clock: " + lamportClock.getTime());
-                out.println();
-                out.flush();
-            } catch (Exception e) {
-                out.println("HTTP/1.1 500 Internal Server Error");
-                out.println();
-                out.flush();
-                e.printStackTrace();
+            if (!parsedData.containsKey("id")) {
+                return new HttpResponse(400);
             }
+
+            // Store the parsed data in the weather store
+            String id = parsedData.get("id");
+            trace.setStationId(id);
+            trace.phase("store");
+            // Only remember the body if it is stored under the ID the byte scan found
+            PutDeduplicator.Digest stored = id.equals(payloadId) ? digest : null;
+            int clock = deduplicator.store(id, stored, () -> storeWeatherEntry(id, parsedData));
+
+            return new HttpResponse(201).header("Lamport-Clock", String.valueOf(clock));
+        } catch (Exception e) {
+            log.logLimited(AsyncLogger.Level.WARN, "put-error", "Failed to process PUT request", e);
+            return new HttpResponse(500);
         }
     }
 
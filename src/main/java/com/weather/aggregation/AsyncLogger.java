@@ -0,0 +1,225 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Asynchronous logger for the server.
+// Callers only enqueue a record into a bounded queue; a single background thread
+// formats and writes them to stdout. If the queue is full the record is dropped
+// (and counted) instead of blocking, so a slow stdout can never stall a request
+// thread. Repetitive messages can be rate limited per key.
+//
+// Level threshold and queue size are read from the system properties
+// aggregation.logLevel (default INFO) and aggregation.logQueueSize (default 8192).
+public class AsyncLogger {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    // Messages per key allowed in each rate limit window
+    private static final int RATE_LIMIT_PER_WINDOW = 10;
+    private static final long RATE_LIMIT_WINDOW_MS = 1000;
+
+    private static final AsyncLogger INSTANCE = new AsyncLogger(
+            Level.valueOf(System.getProperty("aggregation.logLevel", "INFO").toUpperCase()),
+            Integer.getInteger("aggregation.logQueueSize", 8192),
+            System.out);
+
+    private final Level threshold;
+    private final BlockingQueue<LogRecord> queue;
+    private final PrintStream target;
+    private final LongAdder dropped = new LongAdder();
+    private final ConcurrentHashMap<String, RateWindow> rateWindows = new ConcurrentHashMap<>();
+
+    AsyncLogger(Level threshold, int queueSize, PrintStream target) {
+        this.threshold = threshold;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.target = target;
+
+        Thread writer = new Thread(this::writeLoop, "async-logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "async-logger-flush"));
+    }
+
+    public static AsyncLogger get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    // Enqueue a record; never blocks
+    public void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        LogRecord record = new LogRecord(System.currentTimeMillis(), level,
+                Thread.currentThread().getName(), message, error, 0);
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    // Log at most RATE_LIMIT_PER_WINDOW messages per key per window; the number of
+    // suppressed messages is appended to the next one that gets through
+    public void logLimited(Level level, String key, String message) {
+        logLimited(level, key, message, null);
+    }
+
+    public void logLimited(Level level, String key, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        RateWindow window = rateWindows.computeIfAbsent(key, k -> new RateWindow());
+        long now = System.currentTimeMillis();
+        long windowStart = window.start.get();
+        if (now - windowStart >= RATE_LIMIT_WINDOW_MS && window.start.compareAndSet(windowStart, now)) {
+            window.count.set(0);
+        }
+        if (window.count.incrementAndGet() > RATE_LIMIT_PER_WINDOW) {
+            window.suppressed.incrementAndGet();
+            return;
+        }
+
+        LogRecord record = new LogRecord(now, level, Thread.currentThread().getName(),
+                message, error, window.suppressed.getAndSet(0));
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    // Number of records dropped because the queue was full
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        List<LogRecord> batch = new ArrayList<>(256);
+        long reportedDrops = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, 255);
+
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                target.println(format(new LogRecord(System.currentTimeMillis(), Level.WARN, "async-logger",
+                        "Log queue full, dropped " + (drops - reportedDrops) + " messages", null, 0)));
+                reportedDrops = drops;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    // Write whatever is still queued; used at shutdown. The writer may already have taken
+    // records off the queue, so first let it reach a marker queued behind them
+    private void flush() {
+        FlushMarker marker = new FlushMarker();
+        if (queue.offer(marker)) {
+            try {
+                if (marker.written.await(1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<LogRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        write(remaining);
+    }
+
+    private void write(List<LogRecord> records) {
+        for (LogRecord record : records) {
+            if (!(record instanceof FlushMarker)) {
+                target.println(format(record));
+            }
+        }
+        target.flush();
+        for (LogRecord record : records) {
+            if (record instanceof FlushMarker) {
+                ((FlushMarker) record).written.countDown();
+            }
+        }
+    }
+
+    private static String format(LogRecord record) {
+        StringBuilder line = new StringBuilder(128);
+        line.append(Instant.ofEpochMilli(record.timestamp)).append(' ')
+                .append(record.level).append(" [").append(record.thread).append("] ")
+                .append(record.message);
+        if (record.suppressed > 0) {
+            line.append(" (").append(record.suppressed).append(" similar messages suppressed)");
+        }
+        if (record.error != null) {
+            StringWriter trace = new StringWriter();
+            record.error.printStackTrace(new PrintWriter(trace));
+            line.append(System.lineSeparator()).append(trace.toString().trim());
+        }
+        return line.toString();
+    }
+
+    private static class LogRecord {
+        final long timestamp;
+        final Level level;
+        final String thread;
+        final String message;
+        final Throwable error;
+        final int suppressed;
+
+        LogRecord(long timestamp, Level level, String thread, String message, Throwable error, int suppressed) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+            this.error = error;
+            this.suppressed = suppressed;
+        }
+    }
+
+    private static class FlushMarker extends LogRecord {
+        final CountDownLatch written = new CountDownLatch(1);
+
+        FlushMarker() {
+            super(0, Level.DEBUG, null, null, null, 0);
+        }
+    }
+
+    private static class RateWindow {
+        final AtomicLong start = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger suppressed = new AtomicInteger();
+    }
+}
@@ -0,0 +1,181 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Asynchronous GET client for querying many aggregation servers at once.
+// A single java.net.http.HttpClient (and its connection pool) is shared by all
+// requests; responses are parsed from the body stream as it arrives, on a small
+// worker pool, instead of being collected into a String first.
+// The parser blocks on the body stream, so the worker pool must not be the
+// HttpClient's own executor: the client needs its threads free to deliver the bytes.
+public class AsyncWeatherClient {
+
+    private static final int MAX_RETRIES = 3; // Max retry attempts per server
+    private static final int RETRY_DELAY_MS = 3000; // Delay between retries (3 seconds)
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final LamportClock lamportClock;
+
+    // Result of querying one server; error is set when it could not be read
+    public static class ServerResponse {
+        public final String url;
+        public final int clock;
+        public final List<WeatherStation> stations;
+        public final Throwable error;
+
+        ServerResponse(String url, int clock, List<WeatherStation> stations, Throwable error) {
+            this.url = url;
+            this.clock = clock;
+            this.stations = stations;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    public AsyncWeatherClient(int threads, LamportClock lamportClock) {
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "weather-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1) // the aggregation server speaks plain HTTP/1.1
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+        this.lamportClock = lamportClock;
+    }
+
+    // Query one server, retrying while it is unavailable or busy
+    public CompletableFuture<ServerResponse> fetch(String url) {
+        return fetch(url, 1);
+    }
+
+    // Query every server in parallel; completes once all of them have answered or given up
+    public CompletableFuture<List<ServerResponse>> fetchAll(List<String> urls) {
+        List<CompletableFuture<ServerResponse>> requests = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            requests.add(fetch(url));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<ServerResponse> responses = new ArrayList<>(requests.size());
+            for (CompletableFuture<ServerResponse> request : requests) {
+                responses.add(request.join());
+            }
+            return responses;
+        });
+    }
+
+    // Merge the stations of all successful responses by ID. When several servers hold
+    // the same station, the copy from the response with the highest Lamport clock wins.
+    public static Map<String, WeatherStation> merge(List<ServerResponse> responses) {
+        Map<String, WeatherStation> merged = new TreeMap<>();
+        Map<String, Integer> mergedClock = new TreeMap<>();
+        for (ServerResponse response : responses) {
+            if (!response.isSuccess()) {
+                continue;
+            }
+            for (WeatherStation station : response.stations) {
+                Integer clock = mergedClock.get(station.getId());
+                if (clock == null || response.clock > clock) {
+                    merged.put(station.getId(), station);
+                    mergedClock.put(station.getId(), response.clock);
+                }
+            }
+        }
+        return merged;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private CompletableFuture<ServerResponse> fetch(String url, int attempt) {
+        lamportClock.tick(); // Tick before sending request
+        java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Lamport-Clock", String.valueOf(lamportClock.getTime()))
+                .GET()
+                .build();
+
+        return httpClient.sendAsync(request, BodyHandlers.ofInputStream())
+                .thenApplyAsync(response -> readResponse(url, response), executor)
+                .handle((response, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    return retryOrFail(url, attempt, unwrap(error));
+                })
+                .thenCompose(next -> next);
+    }
+
+    private CompletableFuture<ServerResponse> retryOrFail(String url, int attempt, Throwable error) {
+        long delay;
+        if (error instanceof ServiceUnavailableException) {
+            delay = ((ServiceUnavailableException) error).getRetryAfterMs();
+            System.err.println(url + ": server busy. Retry attempt " + attempt + " after " + delay + " ms...");
+        } else if (error instanceof ConnectException) {
+            delay = RETRY_DELAY_MS;
+            System.err.println(url + ": server unavailable. Retry attempt " + attempt + "...");
+        } else {
+            return CompletableFuture.completedFuture(new ServerResponse(url, 0, List.of(), error));
+        }
+
+        if (attempt >= MAX_RETRIES) {
+            System.err.println(url + ": max retries reached.");
+            return CompletableFuture.completedFuture(new ServerResponse(url, 0, List.of(), error));
+        }
+        return CompletableFuture.supplyAsync(() -> null,
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor))
+                .thenCompose(ignored -> fetch(url, attempt + 1));
+    }
+
+    private ServerResponse readResponse(String url, java.net.http.HttpResponse<InputStream> response) {
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 503) {
+                throw new ServiceUnavailableException(ServiceUnavailableException.parseRetryAfter(
+                        response.headers().firstValue("Retry-After").orElse(null), RETRY_DELAY_MS));
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("Unexpected response code " + response.statusCode());
+            }
+
+            List<WeatherStation> stations = new ArrayList<>();
+            WeatherJsonStreamParser.parse(body, stations::add);
+
+            // Update Lamport clock with server time
+            int serverClock = response.headers().firstValue("Lamport-Clock").map(Integer::parseInt).orElse(0);
+            lamportClock.update(serverClock);
+            return new ServerResponse(url, serverClock, stations, null);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,151 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
+// Second listener of the aggregation server that accepts the length-prefixed
+// binary framing from BinaryProtocol. Connections are long lived: a content server
+// streams frames and the handler answers each one with an ack, flushing acks only
+// when no more input is waiting so pipelined frames are acknowledged in batches.
+// Readings go into the same store as HTTP PUTs. A connection that sends nothing for
+// readTimeoutMs, mid-frame or between frames, is closed. Connections are accepted by an
+// HttpListener, so a failed accept is retried rather than ending the listener.
+public class BinaryIngestServer {
+
+    // Where decoded readings are stored; returns the Lamport clock to acknowledge with
+    public interface Store {
+        int store(String stationId, Map<String, String> data);
+    }
+
+    private final int port;
+    private final int readTimeoutMs;
+    private final LamportClock lamportClock;
+    private final AdmissionController admission;
+    private final ServerMetrics metrics;
+    private final Store store;
+    private final ThreadFactory handlerThreads;
+    private final AsyncLogger log = AsyncLogger.get();
+    private HttpListener listener;
+
+    public BinaryIngestServer(int port, int readTimeoutMs, LamportClock lamportClock, AdmissionController admission,
+                              ServerMetrics metrics, Store store, ThreadFactory handlerThreads) {
+        this.port = port;
+        this.readTimeoutMs = readTimeoutMs;
+        this.lamportClock = lamportClock;
+        this.admission = admission;
+        this.metrics = metrics;
+        this.store = store;
+        this.handlerThreads = handlerThreads;
+    }
+
+    // Bind the listener and accept connections on a background thread
+    public void start() throws IOException {
+        listener = new HttpListener("binary-ingest", port, 1, 50, true, 0, 0, false, this::accept);
+        listener.start();
+        log.info("Binary ingest listener started on port " + listener.getPort());
+    }
+
+    // Stop accepting connections; open connections are served until the client closes them
+    public void stop() {
+        listener.stop();
+    }
+
+    public int getPort() {
+        return listener.getPort();
+    }
+
+    // Called on the acceptor thread for every new connection. If the handler thread cannot
+    // be started the permit is given back before the listener closes the socket.
+    private void accept(Socket socket) {
+        if (!admission.tryOpenConnection()) {
+            metrics.recordRejectedConnection();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+            return;
+        }
+        try {
+            Thread handler = handlerThreads.newThread(() -> handleConnection(socket));
+            handler.setName("binary-ingest-" + socket.getPort());
+            handler.start();
+        } catch (RuntimeException | Error e) {
+            admission.connectionClosed();
+            throw e;
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        metrics.connectionOpened();
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 16 * 1024))) {
+            s.setSoTimeout(readTimeoutMs);
+
+            byte[] payload = new byte[4096];
+            int length;
+            while ((length = BinaryProtocol.readFrameLength(in)) != -1) {
+                long startTime = System.nanoTime();
+                if (length > payload.length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+
+                int status = handleFrame(s, payload, length, out);
+                metrics.recordRequest(ServerMetrics.BINARY, status, System.nanoTime() - startTime);
+
+                // Batch acks for pipelined frames, flush once the client waits for them
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            log.logLimited(AsyncLogger.Level.WARN, "binary-io", "I/O error on binary ingest connection: " + e);
+        } finally {
+            metrics.connectionClosed();
+            admission.connectionClosed();
+        }
+    }
+
+    // Decode and store one frame, write its ack and return the equivalent HTTP status for metrics
+    private int handleFrame(Socket socket, byte[] payload, int length, DataOutputStream out) throws IOException {
+        RequestTrace trace = RequestTrace.start();
+        trace.setMethod("BINARY");
+        trace.setPayloadSize(length);
+        try {
+            long retryAfter = admission.admitRequest(socket.getInetAddress());
+            if (retryAfter > 0) {
+                BinaryProtocol.writeAck(out, BinaryProtocol.STATUS_OVERLOADED, lamportClock.getTime(), (int) retryAfter);
+                return 503;
+            }
+            try {
+                trace.phase("parse");
+                BinaryProtocol.Reading reading = BinaryProtocol.decodePut(payload, length);
+                trace.setStationId(reading.stationId);
+
+                trace.phase("store");
+                lamportClock.update(reading.clock);
+                int clock = store.store(reading.stationId, reading.data);
+
+                trace.phase("write");
+                BinaryProtocol.writeAck(out, BinaryProtocol.STATUS_OK, clock, 0);
+                return 201;
+            } catch (IllegalArgumentException e) {
+                BinaryProtocol.writeAck(out, BinaryProtocol.STATUS_BAD_REQUEST, lamportClock.getTime(), 0);
+                return 400;
+            } catch (RuntimeException e) {
+                log.logLimited(AsyncLogger.Level.WARN, "binary-error", "Failed to store binary frame", e);
+                BinaryProtocol.writeAck(out, BinaryProtocol.STATUS_ERROR, lamportClock.getTime(), 0);
+                return 500;
+            } finally {
+                admission.endRequest();
+            }
+        } finally {
+            trace.finish();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Length-prefixed binary framing for high-rate ingest (see BinaryIngestServer).
+//
+// Every frame is an int32 length followed by that many payload bytes (big endian):
+//
+//   frame   := length:i32 type:u8 clock:i32 idLength:u16 id:utf8 fieldCount:u16 field*
+//   field   := keyLength:u8 key:utf8 valueType:u8 value
+//   value   := STRING  length:u16 utf8
+//            | DOUBLE  f64
+//            | LONG    i64
+//
+// The server answers each frame with a fixed 7 byte ack:
+//
+//   ack     := status:u8 clock:i32 retryAfterSeconds:u16
+//
+// A connection carries any number of frames, so a content server can pipeline
+// readings and collect the acks afterwards.
+public class BinaryProtocol {
+
+    public static final byte TYPE_PUT = 1;
+
+    public static final byte VALUE_STRING = 0;
+    public static final byte VALUE_DOUBLE = 1;
+    public static final byte VALUE_LONG = 2;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_BAD_REQUEST = 1;
+    public static final byte STATUS_OVERLOADED = 2;
+    public static final byte STATUS_ERROR = 3;
+
+    public static final int ACK_SIZE = 7;
+    public static final int MAX_FRAME_SIZE = 1 << 20;
+
+    // A decoded PUT frame
+    public static class Reading {
+        public final String stationId;
+        public final int clock;
+        public final Map<String, String> data;
+
+        Reading(String stationId, int clock, Map<String, String> data) {
+            this.stationId = stationId;
+            this.clock = clock;
+            this.data = data;
+        }
+    }
+
+    // Encode a station reading as a complete frame (including the length prefix).
+    // Values that round-trip exactly as a long or double are sent in binary form.
+    public static byte[] encodePut(Map<String, String> data, int clock) throws IOException {
+        String id = data.get("id");
+        if (id == null) {
+            throw new IllegalArgumentException("Reading has no id");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length placeholder
+        out.writeByte(TYPE_PUT);
+        out.writeInt(clock);
+        writeShortString(out, id);
+
+        int fields = data.containsKey("id") ? data.size() - 1 : data.size();
+        out.writeShort(fields);
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            if (entry.getKey().equals("id")) {
+                continue;
+            }
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (key.length > 255) {
+                throw new IllegalArgumentException("Field name too long: " + entry.getKey());
+            }
+            out.writeByte(key.length);
+            out.write(key);
+            writeValue(out, entry.getValue());
+        }
+        out.flush();
+
+        byte[] frame = bytes.toByteArray();
+        ByteBuffer.wrap(frame).putInt(0, frame.length - 4);
+        return frame;
+    }
+
+    private static void writeValue(DataOutputStream out, String value) throws IOException {
+        Long asLong = exactLong(value);
+        if (asLong != null) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong(asLong);
+            return;
+        }
+        Double asDouble = exactDouble(value);
+        if (asDouble != null) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(asDouble);
+            return;
+        }
+        out.writeByte(VALUE_STRING);
+        writeShortString(out, value);
+    }
+
+    private static Long exactLong(String value) {
+        try {
+            long parsed = Long.parseLong(value);
+            return Long.toString(parsed).equals(value) ? parsed : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double exactDouble(String value) {
+        try {
+            double parsed = Double.parseDouble(value);
+            return Double.toString(parsed).equals(value) ? parsed : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeShortString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for a frame");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    // Read the length prefix of the next frame; returns -1 at a clean end of stream
+    public static int readFrameLength(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return -1;
+        }
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    // Decode a frame payload (without its length prefix)
+    public static Reading decodePut(byte[] payload, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload, 0, length);
+        try {
+            byte type = buffer.get();
+            if (type != TYPE_PUT) {
+                throw new IllegalArgumentException("Unknown frame type: " + type);
+            }
+            int clock = buffer.getInt();
+            String id = readString(buffer, buffer.getShort() & 0xFFFF);
+            if (id.isEmpty()) {
+                throw new IllegalArgumentException("Empty station id");
+            }
+
+            int fields = buffer.getShort() & 0xFFFF;
+            Map<String, String> data = new HashMap<>(Math.max(16, fields * 2));
+            data.put("id", id);
+            for (int i = 0; i < fields; i++) {
+                String key = readString(buffer, buffer.get() & 0xFF);
+                byte valueType = buffer.get();
+                String value;
+                if (valueType == VALUE_LONG) {
+                    value = Long.toString(buffer.getLong());
+                } else if (valueType == VALUE_DOUBLE) {
+                    value = Double.toString(buffer.getDouble());
+                } else if (valueType == VALUE_STRING) {
+                    value = readString(buffer, buffer.getShort() & 0xFFFF);
+                } else {
+                    throw new IllegalArgumentException("Unknown value type: " + valueType);
+                }
+                data.put(key, value);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes in frame");
+            }
+            return new Reading(id, clock, data);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated frame", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Truncated frame");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    public static void writeAck(DataOutputStream out, byte status, int clock, int retryAfterSeconds) throws IOException {
+        out.writeByte(status);
+        out.writeInt(clock);
+        out.writeShort(Math.min(0xFFFF, retryAfterSeconds));
+    }
+}
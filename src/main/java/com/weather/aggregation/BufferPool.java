@@ -0,0 +1,31 @@
+package com.weather.aggregation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Fixed-size pool of reusable byte buffers for the request path.
+// acquire() falls back to a fresh allocation when the pool is empty, and release()
+// drops buffers once the pool is full, so the pool never blocks or grows unbounded.
+public class BufferPool {
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> buffers;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+}
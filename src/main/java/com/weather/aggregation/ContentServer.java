@@ -2,10 +2,21 @@ package com.weather.aggregation;
 
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URL;
 import java.net.ConnectException;
-import java.util.HashMap;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ContentServer {
 
@@ -13,35 +24,204 @@ public class ContentServer {
     private static final int RETRY_DELAY_MS = 3000; // Delay between retries (3 seconds)
     private static final LamportClock lamportClock = new LamportClock(); // Initialize Lamport clock
 
+    // A file may hold many station records. They are parsed on a separate thread and
+    // handed to the uploaders in batches, so uploading starts while parsing continues.
+    private static final int BATCH_SIZE = 500;
+    private static final int PIPELINE_DEPTH = 8; // batches parsed ahead of the uploaders
+    private static final int UPLOAD_THREADS = Integer.getInteger("contentServer.uploadThreads", 4);
+    private static final int BINARY_WINDOW = Integer.getInteger("contentServer.binaryWindow", 256); // unacked frames
+    private static final Batch END_OF_FILE = new Batch(-1, new ArrayList<>());
+
+    // Records parsed from the input file, numbered from firstRecord
+    private static final class Batch {
+        final long firstRecord;
+        final List<Map<String, String>> records;
+
+        final boolean onlyRecord;
+
+        Batch(long firstRecord, List<Map<String, String>> records) {
+            this(firstRecord, records, firstRecord == 0 && records.size() == 1);
+        }
+
+        Batch(long firstRecord, List<Map<String, String>> records, boolean onlyRecord) {
+            this.firstRecord = firstRecord;
+            this.records = records;
+            this.onlyRecord = onlyRecord;
+        }
+
+        // A file with a single record keeps the detailed per-attempt output
+        boolean isOnlyRecord() {
+            return onlyRecord;
+        }
+    }
+
     public static void main(String[] args) {
         System.out.println("Arguments received:");
         for (String arg : args) {
             System.out.println(arg);
         }
 
-        if (args.length < 2) {
+        boolean binary = args.length >= 3 && args[0].equals("--binary");
+        if (!binary && args.length < 2) {
             System.err.println("Usage: java ContentServer <server-url> <file-path>");
+            System.err.println("       java ContentServer --binary <host:port> <file-path>");
+            return;
+        }
+        String target = binary ? args[1] : args[0];
+        String filePath = binary ? args[2] : args[1];
+
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        Thread parser = startParser(filePath, batches);
+
+        AtomicLong sent = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        try {
+            if (binary) {
+                uploadBinary(target, batches, sent, failed);
+            } else {
+                uploadHttp(target, batches, sent, failed);
+            }
+            parser.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return;
         }
 
-        String serverUrl = args[0];
-        String filePath = args[1];
+        if (sent.get() + failed.get() > 1) {
+            System.out.println("Upload finished: " + sent.get() + " records sent, " + failed.get() + " failed.");
+        }
+    }
 
+    // Parse the file on its own thread, queueing full batches as they fill up
+    private static Thread startParser(String filePath, BlockingQueue<Batch> batches) {
+        Thread parser = new Thread(() -> {
+            List<List<Map<String, String>>> batch = new ArrayList<>(List.of(new ArrayList<>(BATCH_SIZE)));
+            long[] parsed = {0};
+            try {
+                new WeatherFileParser().parse(Paths.get(filePath), record -> {
+                    batch.get(0).add(record);
+                    parsed[0]++;
+                    if (batch.get(0).size() == BATCH_SIZE) {
+                        enqueue(batches, new Batch(parsed[0] - BATCH_SIZE, batch.get(0)));
+                        batch.set(0, new ArrayList<>(BATCH_SIZE));
+                    }
+                });
+                if (!batch.get(0).isEmpty()) {
+                    enqueue(batches, new Batch(parsed[0] - batch.get(0).size(), batch.get(0)));
+                } else if (parsed[0] == 0) {
+                    System.err.println("No weather records found in " + filePath);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                enqueue(batches, END_OF_FILE);
+            }
+        }, "content-parser");
+        parser.start();
+        return parser;
+    }
+
+    private static void enqueue(BlockingQueue<Batch> batches, Batch batch) {
+        try {
+            batches.put(batch); // blocks while the uploaders are behind
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing records", e);
+        }
+    }
+
+    // Next batch to upload, or null once the file is exhausted.
+    // The end marker is put back so every uploader sees it.
+    private static Batch nextBatch(BlockingQueue<Batch> batches) throws InterruptedException {
+        Batch batch = batches.take();
+        if (batch == END_OF_FILE) {
+            batches.put(END_OF_FILE);
+            return null;
+        }
+        return batch;
+    }
+
+    // Upload over HTTP with several uploader threads, one PUT per record. Every station is
+    // sharded onto a fixed uploader, which sends its records one at a time, so readings of
+    // the same station reach the server in file order.
+    private static void uploadHttp(String serverUrl, BlockingQueue<Batch> batches,
+                                   AtomicLong sent, AtomicLong failed) throws InterruptedException {
+        int uploaderCount = Math.max(1, UPLOAD_THREADS);
+        List<BlockingQueue<Batch>> shards = new ArrayList<>(uploaderCount);
+        Thread[] uploaders = new Thread[uploaderCount];
+        for (int i = 0; i < uploaders.length; i++) {
+            BlockingQueue<Batch> shard = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+            shards.add(shard);
+            uploaders[i] = new Thread(() -> {
+                try {
+                    Batch batch;
+                    while ((batch = nextBatch(shard)) != null) {
+                        for (Map<String, String> record : batch.records) {
+                            if (sendRecord(serverUrl, record, batch.isOnlyRecord())) {
+                                sent.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "content-uploader-" + i);
+            uploaders[i].start();
+        }
+
+        // Split every parsed batch by station, keeping the file order within each part
+        try {
+            Batch batch;
+            while ((batch = nextBatch(batches)) != null) {
+                List<List<Map<String, String>>> parts = new ArrayList<>(uploaderCount);
+                for (int i = 0; i < uploaderCount; i++) {
+                    parts.add(new ArrayList<>());
+                }
+                for (Map<String, String> record : batch.records) {
+                    parts.get(shardOf(record, uploaderCount)).add(record);
+                }
+                for (int i = 0; i < uploaderCount; i++) {
+                    if (!parts.get(i).isEmpty()) {
+                        shards.get(i).put(new Batch(batch.firstRecord, parts.get(i), batch.isOnlyRecord()));
+                    }
+                }
+            }
+        } finally {
+            for (BlockingQueue<Batch> shard : shards) {
+                shard.put(END_OF_FILE);
+            }
+        }
+        for (Thread uploader : uploaders) {
+            uploader.join();
+        }
+    }
+
+    private static int shardOf(Map<String, String> record, int shards) {
+        String id = record.get("id");
+        return id == null ? 0 : Math.floorMod(id.hashCode(), shards);
+    }
+
+    // PUT one record, retrying while the server is unavailable or busy; returns whether it was stored
+    private static boolean sendRecord(String serverUrl, Map<String, String> weatherData, boolean verbose) {
         boolean success = false;
         int attempts = 0;
 
         while (!success && attempts < MAX_RETRIES) {
             try {
                 attempts++;
-                System.out.println("Attempt " + attempts + " to send data...");
-
-                Map<String, String> weatherData = readWeatherDataFromFile(filePath);
+                if (verbose) {
+                    System.out.println("Attempt " + attempts + " to send data...");
+                }
 
                 // Tick before sending the request
                 lamportClock.tick();
                 String jsonString = CustomJsonUtils.createJsonString(weatherData);
 
-                System.out.println("JSON content to send: " + jsonString);
+                if (verbose) {
+                    System.out.println("JSON content to send: " + jsonString);
+                }
 
                 URL url = new URL(serverUrl + "/weather.json");
                 HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -56,17 +236,39 @@ public class ContentServer {
                 }
 
                 int responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    throw ServiceUnavailableException.fromResponse(connection, RETRY_DELAY_MS);
+                }
                 int serverClock = extractClockFromResponse(connection); // Extract clock from server
                 lamportClock.update(serverClock); // Update Lamport clock with server clock
 
-                System.out.println("Response code: " + responseCode);
+                if (verbose) {
+                    System.out.println("Response code: " + responseCode);
+                }
                 if (responseCode == HttpURLConnection.HTTP_CREATED) {
-                    System.out.println("Data successfully sent to server.");
+                    if (verbose) {
+                        System.out.println("Data successfully sent to server.");
+                    }
                     success = true;
                 } else {
-                    throw new ConnectException("Failed to send PUT request: Unexpected response code.");
+                    // Sending the same record again would get the same answer
+                    System.err.println("Server rejected reading " + weatherData.get("id")
+                            + " (status " + responseCode + ").");
+                    break;
                 }
 
+            } catch (ServiceUnavailableException e) {
+                // Server is overloaded; wait as long as it asked before retrying
+                System.err.println("Server busy. Retry attempt " + attempts + " after " + e.getRetryAfterMs() + " ms...");
+                if (attempts < MAX_RETRIES) {
+                    try {
+                        Thread.sleep(e.getRetryAfterMs());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    System.err.println("Max retries reached. Server still busy.");
+                }
             } catch (ConnectException e) {
                 System.err.println("Server unavailable. Retry attempt " + attempts + "...");
                 if (attempts < MAX_RETRIES) {
@@ -83,20 +285,240 @@ public class ContentServer {
                 break;
             }
         }
+        return success;
     }
 
-    private static Map<String, String> readWeatherDataFromFile(String filePath) throws IOException {
-        Map<String, String> data = new HashMap<>();
-        try (BufferedReader fileReader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = fileReader.readLine()) != null) {
-                String[] keyValue = line.split(":", 2);
-                if (keyValue.length == 2) {
-                    data.put(keyValue[0].trim(), keyValue[1].trim());
+    // Send the file over the binary ingest protocol (see BinaryProtocol) instead of HTTP.
+    // Frames are pipelined on one connection: this thread keeps writing while a reader
+    // thread collects the acks, with at most BINARY_WINDOW frames unacknowledged.
+    // Once the server reports it is too busy, no new frames are written; the records it
+    // turned away, those in flight when the connection failed and those not yet written
+    // are resent in file order on a new connection, after the Retry-After the server
+    // sent, before the rest of the file.
+    private static void uploadBinary(String hostAndPort, BlockingQueue<Batch> batches,
+                                     AtomicLong sent, AtomicLong failed) throws InterruptedException {
+        int colon = hostAndPort.lastIndexOf(':');
+        String host = colon > 0 ? hostAndPort.substring(0, colon) : hostAndPort;
+        int port = colon > 0 ? Integer.parseInt(hostAndPort.substring(colon + 1)) : 4568;
+
+        List<Map<String, String>> retry = new ArrayList<>();
+        int attempts = 0; // consecutive connections that got nothing stored
+        boolean fileDone = false;
+
+        while (!fileDone || !retry.isEmpty()) {
+            attempts++;
+            System.out.println("Attempt " + attempts + " to send data (binary)...");
+            long sentBefore = sent.get();
+            List<Map<String, String>> pending = retry;
+            retry = new ArrayList<>();
+            BinaryUpload upload = new BinaryUpload(sent, failed, retry);
+
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 5000);
+                socket.setTcpNoDelay(true);
+                upload.start(socket);
+
+                boolean accepting = upload.send(pending);
+                while (accepting && !fileDone) {
+                    Batch batch = nextBatch(batches);
+                    if (batch == null) {
+                        fileDone = true;
+                    } else {
+                        accepting = upload.send(batch.records);
+                    }
+                }
+                upload.finish();
+            } catch (IOException e) {
+                if (e instanceof ConnectException) {
+                    System.err.println("Server unavailable. Retry attempt " + attempts + "...");
+                } else {
+                    System.err.println("Binary upload interrupted: " + e.getMessage());
+                }
+                if (!upload.isStarted()) {
+                    retry.addAll(pending);
+                }
+            } finally {
+                upload.abandonUnacked();
+            }
+
+            if (sent.get() > sentBefore) {
+                attempts = 0;
+            }
+            if (fileDone && retry.isEmpty()) {
+                break;
+            }
+            if (attempts >= MAX_RETRIES) {
+                System.err.println("Max retries reached. Could not send data to server.");
+                failed.addAndGet(retry.size());
+                while (!fileDone) {
+                    Batch batch = nextBatch(batches);
+                    if (batch == null) {
+                        fileDone = true;
+                    } else {
+                        failed.addAndGet(batch.records.size());
+                    }
+                }
+                return;
+            }
+            long delay = upload.overloaded ? upload.retryAfterMs : RETRY_DELAY_MS;
+            if (!retry.isEmpty()) {
+                System.err.println("Resending " + retry.size() + " records after " + delay + " ms...");
+            }
+            Thread.sleep(delay);
+        }
+
+        if (failed.get() == 0 && sent.get() > 0) {
+            System.out.println("Data successfully sent to server.");
+        }
+    }
+
+    // One pipelined binary connection: frames written in order, acks matched in the same order.
+    // The retry list collects, in file order, the records the server turned away, then those
+    // never acknowledged, then those never written.
+    private static final class BinaryUpload {
+        private final AtomicLong sent;
+        private final AtomicLong failed;
+        private final List<Map<String, String>> retry;
+        private final ArrayDeque<Map<String, String>> unacked = new ArrayDeque<>();
+        private final List<Map<String, String>> unsent = new ArrayList<>();
+        private final Set<String> deferredIds = new HashSet<>(); // stations with a record in retry
+        private final Semaphore window = new Semaphore(BINARY_WINDOW);
+        private DataOutputStream out;
+        private Thread ackReader;
+        private volatile IOException ackFailure;
+        volatile boolean overloaded; // the server turned a record away; stop writing new frames
+        volatile long retryAfterMs;
+
+        BinaryUpload(AtomicLong sent, AtomicLong failed, List<Map<String, String>> retry) {
+            this.sent = sent;
+            this.failed = failed;
+            this.retry = retry;
+        }
+
+        void start(Socket socket) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            ackReader = new Thread(() -> readAcks(in), "content-ack-reader");
+            ackReader.start();
+        }
+
+        boolean isStarted() {
+            return out != null;
+        }
+
+        // Write the records' frames; returns false, keeping the rest for the retry list, once
+        // the server is overloaded. On failure too the records not yet written are kept.
+        boolean send(List<Map<String, String>> records) throws IOException, InterruptedException {
+            int next = 0;
+            try {
+                while (next < records.size()) {
+                    if (overloaded) {
+                        unsent.addAll(records.subList(next, records.size()));
+                        out.flush();
+                        return false;
+                    }
+                    Map<String, String> record = records.get(next);
+                    byte[] frame;
+                    try {
+                        lamportClock.tick();
+                        frame = BinaryProtocol.encodePut(record, lamportClock.getTime());
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Skipping record: " + e.getMessage());
+                        failed.incrementAndGet();
+                        next++;
+                        continue;
+                    }
+                    if (!window.tryAcquire()) {
+                        out.flush(); // let the server work through what is buffered while we wait
+                        window.acquire();
+                    }
+                    checkAcks();
+                    synchronized (unacked) {
+                        unacked.addLast(record);
+                    }
+                    next++;
+                    out.write(frame);
                 }
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                unsent.addAll(records.subList(next, records.size()));
+                throw e;
+            }
+        }
+
+        // Stop sending and wait until every frame has been acknowledged
+        void finish() throws IOException, InterruptedException {
+            out.flush();
+            window.acquire(BINARY_WINDOW);
+            window.release(BINARY_WINDOW);
+            checkAcks();
+        }
+
+        // Once the socket is closed, whatever is still unacknowledged or unwritten is resent
+        void abandonUnacked() throws InterruptedException {
+            if (ackReader != null) {
+                ackReader.join();
+            }
+            synchronized (unacked) {
+                retry.addAll(unacked);
+                unacked.clear();
+                retry.addAll(unsent);
+                unsent.clear();
+            }
+        }
+
+        private void checkAcks() throws IOException {
+            if (ackFailure != null) {
+                throw ackFailure;
+            }
+        }
+
+        private void readAcks(DataInputStream in) {
+            try {
+                while (true) {
+                    byte status = in.readByte();
+                    int serverClock = in.readInt();
+                    int retryAfterSeconds = in.readUnsignedShort();
+                    lamportClock.update(serverClock);
+
+                    Map<String, String> record;
+                    synchronized (unacked) {
+                        record = unacked.pollFirst();
+                    }
+                    if (record == null) {
+                        throw new IOException("Unexpected ack from server");
+                    }
+                    if (status == BinaryProtocol.STATUS_OK) {
+                        sent.incrementAndGet();
+                        String id = record.get("id");
+                        synchronized (unacked) {
+                            if (deferredIds.remove(id)) {
+                                // a later reading of the station was stored; resending the
+                                // turned away ones would overwrite it, so they count as sent
+                                int deferred = retry.size();
+                                retry.removeIf(r -> id.equals(r.get("id")));
+                                sent.addAndGet(deferred - retry.size());
+                            }
+                        }
+                    } else if (status == BinaryProtocol.STATUS_OVERLOADED) {
+                        retryAfterMs = Math.max(retryAfterMs, retryAfterSeconds * 1000L);
+                        overloaded = true;
+                        synchronized (unacked) {
+                            retry.add(record);
+                            deferredIds.add(record.get("id"));
+                        }
+                    } else {
+                        System.err.println("Server rejected reading " + record.get("id") + " (status " + status + ").");
+                        failed.incrementAndGet();
+                    }
+                    window.release();
+                }
+            } catch (IOException e) {
+                ackFailure = e;
+                window.release(BINARY_WINDOW); // wake the writer
             }
         }
-        return data;
     }
 
     private static int extractClockFromResponse(HttpURLConnection connection) {
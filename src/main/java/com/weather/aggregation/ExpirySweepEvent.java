@@ -0,0 +1,25 @@
+package com.weather.aggregation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR event covering one pass of the expiry checker. Disabled by default.
+@Name("com.weather.aggregation.ExpirySweep")
+@Label("Expiry Sweep")
+@Category({"Weather", "Aggregation Server"})
+@Description("One pass of the expiry checker over the weather store")
+@Enabled(false)
+@StackTrace(false)
+public class ExpirySweepEvent extends Event {
+
+    @Label("Entries Scanned")
+    int scanned;
+
+    @Label("Entries Expired")
+    int expired;
+}
@@ -4,6 +4,9 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class GETClient {
 
@@ -12,6 +15,21 @@ public class GETClient {
     private static final LamportClock lamportClock = new LamportClock(); // Initialize Lamport clock
 
     public static void main(String[] args) {
+        // With --async or several URLs, query all servers in parallel and merge the results
+        if (args.length > 1 || (args.length == 1 && args[0].equals("--async"))) {
+            List<String> urls = new ArrayList<>();
+            for (String arg : args) {
+                if (!arg.equals("--async")) {
+                    urls.add(arg);
+                }
+            }
+            if (urls.isEmpty()) {
+                urls.add("http://localhost:4567/weather.json");
+            }
+            fetchAll(urls);
+            return;
+        }
+
         String serverUrl = "http://localhost:4567/weather.json";
         if (args.length > 0) serverUrl = args[0];
 
@@ -24,6 +42,18 @@ public class GETClient {
                 lamportClock.tick(); // Tick before sending request
                 sendGetRequest(serverUrl);
                 success = true;
+            } catch (ServiceUnavailableException e) {
+                // Server is overloaded; wait as long as it asked before retrying
+                System.err.println("Server busy. Retry attempt " + attempts + " after " + e.getRetryAfterMs() + " ms...");
+                if (attempts < MAX_RETRIES) {
+                    try {
+                        Thread.sleep(e.getRetryAfterMs());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    System.err.println("Max retries reached. Server still busy.");
+                }
             } catch (ConnectException e) {
                 System.err.println("Server unavailable. Retry attempt " + attempts + "...");
                 if (attempts < MAX_RETRIES) {
@@ -42,12 +72,46 @@ public class GETClient {
         }
     }
 
+    // Query all servers concurrently and print the merged stations
+    private static void fetchAll(List<String> urls) {
+        AsyncWeatherClient client = new AsyncWeatherClient(Math.min(urls.size(), 8), lamportClock);
+        try {
+            List<AsyncWeatherClient.ServerResponse> responses = client.fetchAll(urls).join();
+            for (AsyncWeatherClient.ServerResponse response : responses) {
+                if (response.isSuccess()) {
+                    System.out.println(response.url + ": " + response.stations.size() + " stations (clock " + response.clock + ")");
+                } else {
+                    System.err.println(response.url + ": failed: " + response.error);
+                }
+            }
+
+            Map<String, WeatherStation> merged = AsyncWeatherClient.merge(responses);
+            StringBuilder json = new StringBuilder("{");
+            for (WeatherStation station : merged.values()) {
+                if (json.length() > 1) {
+                    json.append(",");
+                }
+                json.append(station);
+            }
+            json.append("}");
+            System.out.println("Merged response (" + merged.size() + " stations): " + json);
+        } finally {
+            client.shutdown();
+        }
+    }
+
     private static void sendGetRequest(String serverUrl) throws IOException {
         URL url = new URL(serverUrl);
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("GET");
         connection.setRequestProperty("Lamport-Clock", String.valueOf(lamportClock.getTime()));
 
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
+            ServiceUnavailableException busy = ServiceUnavailableException.fromResponse(connection, RETRY_DELAY_MS);
+            connection.disconnect();
+            throw busy;
+        }
+
         try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
             String responseLine;
             StringBuilder response = new StringBuilder();
@@ -0,0 +1,623 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Cold tier for readings that leave the live store: every expired reading is appended,
+// with the time it was archived, to on-disk segment files, and kept there for the
+// retention period.
+//
+// Segments are append-only and partitioned by time (an hour by default); the file
+// <partitionStart>-<firstSeq>-<lastSeq>.seg holds records of
+//   archive time (8 bytes) | ID length (4) | JSON length (4) | UTF-8 ID | UTF-8 JSON object
+// in archive order. Each segment has a sparse index, one (time, offset) entry per
+// INDEX_INTERVAL_BYTES of records, which is written next to it as .idx when the
+// segment is sealed and rebuilt by a scan if it is missing or stale (e.g. after a crash).
+//
+// Queries memory-map the segments of the partitions they cover and use the sparse
+// index to start close to the first wanted record; only matching records are copied
+// to the response. Compaction merges the segments of each closed partition (one per
+// server run or size rollover) into one, dropping repeats of a station's previous
+// reading, and deletes partitions past the retention period.
+public class HistoryStore implements Closeable {
+
+    private static final int RECORD_HEADER_BYTES = 16;
+    private static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int WRITE_BUFFER_BYTES = 256 * 1024;
+    private static final int MAX_SEGMENT_BYTES = 1 << 30; // a segment must fit one mapping
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d+)-(\\d+)-(\\d+)\\.seg");
+    private static final Comparator<Segment> SEGMENT_ORDER = Comparator
+            .comparingLong((Segment segment) -> segment.partitionStart)
+            .thenComparingInt(segment -> segment.firstSequence);
+
+    private final Path directory;
+    private final long partitionMs;
+    private final long retentionMs;
+    private final LongSupplier clock;
+
+    // Replaced, never modified, so queries iterate a consistent snapshot
+    private volatile List<Segment> segments;
+
+    // Guards appends, the active segment and changes to the segment list
+    private final Object writeLock = new Object();
+    private final Object compactionLock = new Object();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+    private Segment active;
+    private long lastTime = Long.MIN_VALUE;
+    private int nextSequence;
+    private boolean closed;
+
+    public HistoryStore(Path directory, long partitionMs, long retentionMs) throws IOException {
+        this(directory, partitionMs, retentionMs, System::currentTimeMillis);
+    }
+
+    // The clock is only replaced by tests
+    HistoryStore(Path directory, long partitionMs, long retentionMs, LongSupplier clock) throws IOException {
+        this.directory = directory;
+        this.partitionMs = partitionMs;
+        this.retentionMs = retentionMs;
+        this.clock = clock;
+
+        Files.createDirectories(directory);
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (matcher.matches()) {
+                    found.add(new Segment(file, Long.parseLong(matcher.group(1)),
+                            Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3))));
+                } else if (name.endsWith(".tmp")) {
+                    Files.delete(file); // unfinished compaction output
+                }
+            }
+        }
+
+        List<Segment> live = new ArrayList<>();
+        for (Segment segment : found) {
+            // A compaction interrupted after renaming its output leaves the inputs behind
+            if (isReplaced(segment, found)) {
+                segment.delete();
+                continue;
+            }
+            segment.open();
+            live.add(segment);
+            nextSequence = Math.max(nextSequence, segment.lastSequence + 1);
+        }
+        live.sort(SEGMENT_ORDER);
+        segments = Collections.unmodifiableList(live);
+    }
+
+    private static boolean isReplaced(Segment segment, List<Segment> all) {
+        for (Segment other : all) {
+            if (other != segment && other.partitionStart == segment.partitionStart
+                    && other.firstSequence <= segment.firstSequence && segment.lastSequence <= other.lastSequence
+                    && other.lastSequence - other.firstSequence > segment.lastSequence - segment.firstSequence) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Archive a reading that left the live store. Records are buffered; flush() makes
+    // them visible to queries.
+    public void append(String id, byte[] json) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int recordLength = RECORD_HEADER_BYTES + idBytes.length + json.length;
+
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("History store is closed");
+            }
+            // Keep times non-decreasing within a segment, even if the wall clock steps back
+            long time = Math.max(lastTime, clock.getAsLong());
+            lastTime = time;
+            long partition = partitionOf(time);
+            if (active == null || active.partitionStart != partition
+                    || (long) active.length + writeBuffer.position() + recordLength > MAX_SEGMENT_BYTES) {
+                sealActive();
+                active = createSegment(partition);
+            }
+
+            int offset = active.length + writeBuffer.position();
+            if (recordLength > writeBuffer.remaining()) {
+                flushBuffer();
+            }
+            if (recordLength > writeBuffer.capacity()) {
+                ByteBuffer record = ByteBuffer.allocate(recordLength);
+                putRecord(record, time, idBytes, json);
+                record.flip();
+                writeFully(active.channel, record);
+                active.length += recordLength;
+            } else {
+                putRecord(writeBuffer, time, idBytes, json);
+            }
+            active.indexRecord(time, offset);
+        }
+    }
+
+    // Write buffered records so queries see them; called after each expiry sweep
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            if (!closed) {
+                flushBuffer();
+            }
+        }
+    }
+
+    // Archived readings with an archive time in [from, to], optionally only those of one
+    // station, oldest first and at most limit of them, as the UTF-8 JSON array
+    // [{"archivedAt":<epoch ms>,"id":"<id>","reading":{...}},...]
+    public byte[] query(String id, long from, long to, int limit) throws IOException {
+        byte[] wanted = id != null ? id.getBytes(StandardCharsets.UTF_8) : null;
+        ByteArrayOutputStream json = new ByteArrayOutputStream(8192);
+        json.write('[');
+        int[] count = {0};
+        byte[][] scratch = {new byte[1024]};
+
+        for (Segment segment : segments) {
+            if (count[0] >= limit || segment.partitionStart > to) {
+                break;
+            }
+            if (segment.partitionStart + partitionMs <= from) {
+                continue;
+            }
+            ByteBuffer data = segment.view();
+            if (data == null) {
+                continue; // an unsealed segment deleted since the snapshot was taken
+            }
+            scan(data, segment.startOffset(from), data.limit(), (time, buffer, offset, idLength, jsonLength) -> {
+                if (time > to) {
+                    return false;
+                }
+                int idOffset = offset + RECORD_HEADER_BYTES;
+                if (time < from || (wanted != null && !bytesEqual(buffer, idOffset, idLength, wanted))) {
+                    return true;
+                }
+                if (count[0] > 0) {
+                    json.write(',');
+                }
+                json.write(("{\"archivedAt\":" + time + ",\"id\":\"").getBytes(StandardCharsets.UTF_8));
+                copy(buffer, idOffset, idLength, json, scratch);
+                json.write("\",\"reading\":".getBytes(StandardCharsets.UTF_8));
+                copy(buffer, idOffset + idLength, jsonLength, json, scratch);
+                json.write('}');
+                return ++count[0] < limit;
+            });
+        }
+        json.write(']');
+        return json.toByteArray();
+    }
+
+    // Merge the segments of each closed partition into one and delete partitions past the
+    // retention period; returns the number of segment files removed
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            long now = clock.getAsLong();
+            int removed = 0;
+
+            List<Segment> expired = new ArrayList<>();
+            Map<Long, List<Segment>> closedPartitions = new TreeMap<>();
+            for (Segment segment : segments) {
+                if (!segment.isSealed()) {
+                    continue;
+                }
+                if (segment.partitionStart + partitionMs <= now - retentionMs) {
+                    expired.add(segment);
+                } else if (segment.partitionStart + partitionMs <= now) {
+                    closedPartitions.computeIfAbsent(segment.partitionStart, p -> new ArrayList<>()).add(segment);
+                }
+            }
+            if (!expired.isEmpty()) {
+                replace(expired, null);
+                removed += expired.size();
+            }
+
+            for (List<Segment> partition : closedPartitions.values()) {
+                if (partition.size() > 1) {
+                    replace(partition, merge(partition));
+                    removed += partition.size();
+                }
+            }
+            return removed;
+        }
+    }
+
+    // Seal the active segment; the store cannot be used afterwards
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            sealActive();
+        }
+    }
+
+    // Total size of the segment files in bytes
+    public long getDiskBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.length;
+        }
+        return total;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private long partitionOf(long time) {
+        return time - Math.floorMod(time, partitionMs);
+    }
+
+    // ---- writing ----
+
+    private Segment createSegment(long partition) throws IOException {
+        int sequence = nextSequence++;
+        Segment segment = new Segment(directory.resolve(partition + "-" + sequence + "-" + sequence + ".seg"),
+                partition, sequence, sequence);
+        segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        List<Segment> updated = new ArrayList<>(segments);
+        updated.add(segment);
+        updated.sort(SEGMENT_ORDER);
+        segments = Collections.unmodifiableList(updated);
+        return segment;
+    }
+
+    private void sealActive() throws IOException {
+        if (active == null) {
+            return;
+        }
+        flushBuffer();
+        Segment sealed = active;
+        active = null;
+        if (sealed.length == 0) {
+            replace(Collections.singletonList(sealed), null);
+            sealed.channel.close();
+        } else {
+            sealed.seal();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        int written = writeBuffer.remaining();
+        writeFully(active.channel, writeBuffer);
+        writeBuffer.clear();
+        active.length += written;
+    }
+
+    private static void putRecord(ByteBuffer target, long time, byte[] id, byte[] json) {
+        target.putLong(time).putInt(id.length).putInt(json.length).put(id).put(json);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    // Swap segments for their replacement (or drop them) and delete their files.
+    // Queries still iterating an older snapshot keep reading the deleted segments through
+    // their mappings, which stay valid until they are garbage collected.
+    private void replace(List<Segment> old, Segment replacement) throws IOException {
+        synchronized (writeLock) {
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.removeAll(old);
+            if (replacement != null) {
+                updated.add(replacement);
+                updated.sort(SEGMENT_ORDER);
+            }
+            segments = Collections.unmodifiableList(updated);
+        }
+        for (Segment segment : old) {
+            segment.delete();
+        }
+    }
+
+    // Write the records of one partition's segments, in order, to a single new segment.
+    // A record equal to the previous one kept for its station is left out.
+    private Segment merge(List<Segment> inputs) throws IOException {
+        Segment first = inputs.get(0);
+        int lastSequence = first.lastSequence;
+        for (Segment input : inputs) {
+            lastSequence = Math.max(lastSequence, input.lastSequence);
+        }
+        Segment merged = new Segment(directory.resolve(first.partitionStart + "-" + first.firstSequence
+                + "-" + lastSequence + ".seg"), first.partitionStart, first.firstSequence, lastSequence);
+        Path temporary = merged.path.resolveSibling(merged.path.getFileName() + ".tmp");
+
+        Map<String, PutDeduplicator.Digest> lastKept = new HashMap<>();
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        byte[][] scratch = {new byte[1024]};
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            for (Segment input : inputs) {
+                ByteBuffer data = input.view();
+                IOException[] failure = {null};
+                scan(data, 0, data.limit(), (time, buffer, offset, idLength, jsonLength) -> {
+                    int recordLength = RECORD_HEADER_BYTES + idLength + jsonLength;
+                    byte[] record = bytes(buffer, offset, recordLength, scratch);
+                    String id = new String(record, RECORD_HEADER_BYTES, idLength, StandardCharsets.UTF_8);
+                    PutDeduplicator.Digest digest = PutDeduplicator.digest(record, RECORD_HEADER_BYTES + idLength, jsonLength);
+                    if (digest.matches(lastKept.put(id, digest))) {
+                        return true;
+                    }
+                    try {
+                        if (recordLength > out.remaining()) {
+                            out.flip();
+                            merged.length += out.remaining();
+                            writeFully(channel, out);
+                            out.clear();
+                        }
+                        merged.indexRecord(time, merged.length + out.position());
+                        if (recordLength > out.capacity()) {
+                            writeFully(channel, ByteBuffer.wrap(record, 0, recordLength));
+                            merged.length += recordLength;
+                        } else {
+                            out.put(record, 0, recordLength);
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        return false;
+                    }
+                    return true;
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+            out.flip();
+            merged.length += out.remaining();
+            writeFully(channel, out);
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        Files.move(temporary, merged.path, StandardCopyOption.ATOMIC_MOVE);
+        merged.writeIndex();
+        merged.map();
+        return merged;
+    }
+
+    // ---- reading ----
+
+    private interface RecordVisitor {
+        // offset is where the record header starts; return false to stop the scan
+        boolean visit(long time, ByteBuffer data, int offset, int idLength, int jsonLength) throws IOException;
+    }
+
+    // Visit the complete records of data from offset to end; returns the offset after the last one
+    private static int scan(ByteBuffer data, int offset, int end, RecordVisitor visitor) throws IOException {
+        while (offset + RECORD_HEADER_BYTES <= end) {
+            long time = data.getLong(offset);
+            int idLength = data.getInt(offset + 8);
+            int jsonLength = data.getInt(offset + 12);
+            if (idLength < 0 || jsonLength < 0
+                    || (long) offset + RECORD_HEADER_BYTES + idLength + jsonLength > end) {
+                break; // torn write
+            }
+            if (!visitor.visit(time, data, offset, idLength, jsonLength)) {
+                break;
+            }
+            offset += RECORD_HEADER_BYTES + idLength + jsonLength;
+        }
+        return offset;
+    }
+
+    private static boolean bytesEqual(ByteBuffer data, int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Copy a range of a mapped segment into scratch[0], growing it as needed
+    private static byte[] bytes(ByteBuffer data, int offset, int length, byte[][] scratch) {
+        if (scratch[0].length < length) {
+            scratch[0] = new byte[Math.max(length, scratch[0].length * 2)];
+        }
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.get(scratch[0], 0, length);
+        return scratch[0];
+    }
+
+    private static void copy(ByteBuffer data, int offset, int length, OutputStream out, byte[][] scratch)
+            throws IOException {
+        out.write(bytes(data, offset, length, scratch), 0, length);
+    }
+
+    // One segment file and its sparse index
+    private static final class Segment {
+        final Path path;
+        final long partitionStart;
+        final int firstSequence;
+        final int lastSequence;
+
+        volatile int length;  // bytes written to the file
+        FileChannel channel;  // open for appends until the segment is sealed
+        private volatile MappedByteBuffer mapped; // the whole file, once sealed
+        private volatile boolean deleted;
+
+        private long[] indexTimes = new long[16];
+        private int[] indexOffsets = new int[16];
+        private int indexCount;
+        private int nextIndexOffset; // the next record starting at or past this offset is indexed
+
+        Segment(Path path, long partitionStart, int firstSequence, int lastSequence) {
+            this.path = path;
+            this.partitionStart = partitionStart;
+            this.firstSequence = firstSequence;
+            this.lastSequence = lastSequence;
+        }
+
+        Path indexPath() {
+            return path.resolveSibling(path.getFileName().toString().replace(".seg", ".idx"));
+        }
+
+        boolean isSealed() {
+            return mapped != null;
+        }
+
+        synchronized void indexRecord(long time, int offset) {
+            if (offset < nextIndexOffset) {
+                return;
+            }
+            if (indexCount == indexTimes.length) {
+                indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+            }
+            indexTimes[indexCount] = time;
+            indexOffsets[indexCount] = offset;
+            indexCount++;
+            nextIndexOffset = offset + INDEX_INTERVAL_BYTES;
+        }
+
+        // Offset of the last indexed record older than from; every record before it is older too
+        synchronized int startOffset(long from) {
+            int low = 0;
+            int high = indexCount - 1;
+            int start = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (indexTimes[mid] < from) {
+                    start = indexOffsets[mid];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return start;
+        }
+
+        // Read-only view of the written records. A sealed segment stays readable through its
+        // mapping after delete(); null for an unsealed one that has been deleted.
+        synchronized ByteBuffer view() throws IOException {
+            if (mapped != null) {
+                return mapped.duplicate();
+            }
+            if (deleted) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+
+        // Load the index of an existing segment, rebuilding it (and cutting off a torn
+        // last record) when the index file does not describe the current file
+        void open() throws IOException {
+            long fileSize = Files.size(path);
+            if (fileSize > MAX_SEGMENT_BYTES) {
+                throw new IOException("History segment " + path + " is too large");
+            }
+            if (!readIndex(fileSize)) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                    int end = scan(data, 0, (int) fileSize, (time, buffer, offset, idLength, jsonLength) -> {
+                        indexRecord(time, offset);
+                        return true;
+                    });
+                    if (end < fileSize) {
+                        file.truncate(end);
+                    }
+                    length = end;
+                }
+                writeIndex();
+            }
+            map();
+        }
+
+        private boolean readIndex(long fileSize) throws IOException {
+            Path indexPath = indexPath();
+            if (!Files.exists(indexPath)) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+                if (in.readLong() != fileSize) {
+                    return false;
+                }
+                int count = in.readInt();
+                long[] times = new long[Math.max(16, count)];
+                int[] offsets = new int[times.length];
+                for (int i = 0; i < count; i++) {
+                    times[i] = in.readLong();
+                    offsets[i] = in.readInt();
+                }
+                synchronized (this) {
+                    indexTimes = times;
+                    indexOffsets = offsets;
+                    indexCount = count;
+                }
+                length = (int) fileSize;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        synchronized void writeIndex() throws IOException {
+            Path indexPath = indexPath();
+            Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeLong(length);
+                out.writeInt(indexCount);
+                for (int i = 0; i < indexCount; i++) {
+                    out.writeLong(indexTimes[i]);
+                    out.writeInt(indexOffsets[i]);
+                }
+            }
+            Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void map() throws IOException {
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                synchronized (this) {
+                    mapped = data;
+                }
+            }
+        }
+
+        // Make the segment read-only: sync it, persist its index and map it
+        void seal() throws IOException {
+            channel.force(true);
+            writeIndex();
+            map();
+            synchronized (this) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        // The mapping is kept for queries holding an older snapshot: the file's data stays
+        // readable through it until it is unmapped
+        void delete() throws IOException {
+            synchronized (this) {
+                deleted = true;
+            }
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(indexPath());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.weather.aggregation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Listening side of the HTTP server, also used by the binary ingest listener: a
+// configurable number of acceptor threads that hand every accepted connection to onAccept.
+//
+// Where the platform supports SO_REUSEPORT (Linux) each acceptor binds its own
+// listening socket to the port, so the kernel spreads new connections over separate
+// accept queues and the acceptors never contend for one socket. Elsewhere, or when
+// reusePort is off, all acceptors share a single socket.
+//
+// The accept backlog is configurable (the JDK default is only 50). Accepted sockets get
+// TCP_NODELAY and the configured send buffer size; the receive buffer size is set on the
+// listening socket before bind, so accepted sockets inherit it and the TCP window scale
+// is negotiated for it. A buffer size of 0 keeps the OS default.
+public class HttpListener {
+
+    private static final AsyncLogger log = AsyncLogger.get();
+    private static final long ACCEPT_RETRY_DELAY_MS = 100;
+
+    private final String name; // prefix of the acceptor thread names
+    private final int port;
+    private final int acceptorThreads;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    private final int sendBufferBytes;
+    private final int receiveBufferBytes;
+    private final boolean reusePort;
+    private final Consumer<Socket> onAccept;
+
+    private final List<ServerSocket> sockets = new ArrayList<>();
+    private final List<Thread> acceptors = new ArrayList<>();
+    private volatile boolean running;
+
+    public HttpListener(int port, int acceptorThreads, int backlog, boolean tcpNoDelay, int sendBufferBytes,
+                        int receiveBufferBytes, boolean reusePort, Consumer<Socket> onAccept) {
+        this("aggregation", port, acceptorThreads, backlog, tcpNoDelay, sendBufferBytes, receiveBufferBytes,
+                reusePort, onAccept);
+    }
+
+    public HttpListener(String name, int port, int acceptorThreads, int backlog, boolean tcpNoDelay,
+                        int sendBufferBytes, int receiveBufferBytes, boolean reusePort, Consumer<Socket> onAccept) {
+        this.name = name;
+        this.port = port;
+        this.acceptorThreads = Math.max(1, acceptorThreads);
+        this.backlog = backlog;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferBytes = sendBufferBytes;
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.reusePort = reusePort;
+        this.onAccept = onAccept;
+    }
+
+    // Bind the listening sockets and start the acceptor threads, which keep the JVM alive until stop()
+    public void start() throws IOException {
+        boolean socketPerAcceptor = reusePort && acceptorThreads > 1 && supportsReusePort();
+        int bindPort = port;
+        try {
+            if (socketPerAcceptor && port != 0) {
+                // SO_REUSEPORT would let us join a group another server already listens with;
+                // a plain bind fails as usual if the port is taken
+                open(port, false).close();
+            }
+            for (int i = 0; i < (socketPerAcceptor ? acceptorThreads : 1); i++) {
+                ServerSocket socket = open(bindPort, socketPerAcceptor);
+                sockets.add(socket);
+                bindPort = socket.getLocalPort(); // with port 0 the others join the first one's port
+            }
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+
+        running = true;
+        for (int i = 0; i < acceptorThreads; i++) {
+            ServerSocket socket = sockets.get(i % sockets.size());
+            Thread acceptor = new Thread(() -> acceptLoop(socket), name + "-acceptor-" + i);
+            acceptors.add(acceptor);
+            acceptor.start();
+        }
+    }
+
+    // Close the listening sockets and wait for the acceptor threads to exit. A socket
+    // closed while threads are blocked in accept() is only released once they return,
+    // so the port is free again when this returns.
+    public void stop() {
+        running = false;
+        for (ServerSocket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        for (Thread acceptor : acceptors) {
+            try {
+                acceptor.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public int getPort() {
+        return sockets.get(0).getLocalPort();
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    // Whether each acceptor has its own SO_REUSEPORT socket
+    public boolean usesReusePort() {
+        return sockets.size() > 1;
+    }
+
+    static boolean supportsReusePort() {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ServerSocket open(int bindPort, boolean shareWithOthers) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        try {
+            if (shareWithOthers) {
+                socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (receiveBufferBytes > 0) {
+                socket.setReceiveBufferSize(receiveBufferBytes);
+            }
+            socket.bind(new InetSocketAddress(bindPort), backlog);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Accept until stopped. A failed accept (such as running out of file descriptors) is
+    // retried after a short pause, and a connection onAccept fails on is closed, so an
+    // acceptor never quietly stops while its socket keeps taking connections.
+    private void acceptLoop(ServerSocket socket) {
+        String thread = Thread.currentThread().getName();
+        int failures = 0; // consecutive failed accepts, logged once per run
+        try {
+            while (running) {
+                Socket client;
+                try {
+                    client = socket.accept();
+                } catch (IOException e) {
+                    if (!running || socket.isClosed()) {
+                        return;
+                    }
+                    if (failures++ == 0) {
+                        log.error("Acceptor " + thread + " failed to accept, retrying", e);
+                    }
+                    Thread.sleep(ACCEPT_RETRY_DELAY_MS);
+                    continue;
+                }
+                if (failures > 0) {
+                    log.info("Acceptor " + thread + " accepting again after " + failures + " failures");
+                    failures = 0;
+                }
+                try {
+                    client.setTcpNoDelay(tcpNoDelay);
+                    if (sendBufferBytes > 0) {
+                        client.setSendBufferSize(sendBufferBytes);
+                    }
+                    onAccept.accept(client);
+                } catch (IOException e) {
+                    // the client already reset the connection
+                    closeQuietly(client);
+                } catch (RuntimeException | Error e) {
+                    log.error("Acceptor " + thread + " could not hand over a connection", e);
+                    closeQuietly(client);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running) {
+                // leaving early: stop the kernel queueing connections nobody will accept
+                log.warn("Acceptor " + thread + " stopped");
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
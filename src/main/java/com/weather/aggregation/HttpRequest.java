@@ -0,0 +1,113 @@
+package com.weather.aggregation;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// A parsed HTTP request. Header names are stored in lower case.
+// The body is a slice of a byte array that may belong to a BufferPool; it is only
+// valid until the request is released by whoever read it.
+public class HttpRequest {
+    private final String method;
+    private final String path;
+    private final Map<String, String> headers;
+
+    private byte[] bodyBuffer = new byte[0];
+    private int bodyOffset;
+    private int bodyLength;
+    private String bodyText;
+
+    public HttpRequest(String method, String path, Map<String, String> headers) {
+        this.method = method;
+        this.path = path;
+        this.headers = headers;
+    }
+
+    // Convenience for building requests in-process (see InProcessClient)
+    public HttpRequest(String method, String path, Map<String, String> headers, byte[] body) {
+        this(method, path, lowerCaseNames(headers));
+        setBody(body, 0, body.length);
+    }
+
+    private static Map<String, String> lowerCaseNames(Map<String, String> headers) {
+        Map<String, String> lowerCased = new HashMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            lowerCased.put(header.getKey().toLowerCase(), header.getValue());
+        }
+        return lowerCased;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    // Decoded value of a query string parameter, null when absent.
+    // Throws IllegalArgumentException for a malformed %-escape.
+    public String getQueryParameter(String name) {
+        int query = path.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String pair : path.substring(query + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (URLDecoder.decode(key, StandardCharsets.UTF_8).equals(name)) {
+                return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    // Declared Content-Length, 0 when absent
+    public long getContentLength() throws HttpRequestException {
+        String value = getHeader("content-length");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            long length = Long.parseLong(value.trim());
+            if (length < 0) {
+                throw new NumberFormatException();
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new HttpRequestException(400, "Invalid Content-Length: " + value);
+        }
+    }
+
+    void setBody(byte[] buffer, int offset, int length) {
+        this.bodyBuffer = buffer;
+        this.bodyOffset = offset;
+        this.bodyLength = length;
+        this.bodyText = null;
+    }
+
+    public byte[] getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    public int getBodyOffset() {
+        return bodyOffset;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    // The body decoded as UTF-8; decoded once and cached
+    public String getBodyText() {
+        if (bodyText == null) {
+            bodyText = new String(bodyBuffer, bodyOffset, bodyLength, StandardCharsets.UTF_8);
+        }
+        return bodyText;
+    }
+}
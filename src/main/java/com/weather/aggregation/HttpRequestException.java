@@ -0,0 +1,19 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+
+// A request that cannot be processed, carrying the HTTP status to answer with
+public class HttpRequestException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public HttpRequestException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,187 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads HTTP/1.1 requests from a socket as bytes.
+// The request line and headers are read with bulk reads into a pooled buffer and
+// parsed in place; the body is read by byte count (Content-Length is a byte count,
+// not a character count) and decoded as UTF-8 only once, by HttpRequest.
+// Header blocks over maxHeaderBytes and bodies over maxBodyBytes are refused with 413.
+public class HttpRequestReader {
+    private final InputStream in;
+    private final BufferPool pool;
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+
+    private byte[] buffer;
+    private int filled;    // bytes read into buffer
+    private int bodyStart; // first byte after the header block
+
+    public HttpRequestReader(InputStream in, BufferPool pool, int maxHeaderBytes, int maxBodyBytes) {
+        this.in = in;
+        this.pool = pool;
+        this.maxHeaderBytes = Math.min(maxHeaderBytes, pool.getBufferSize());
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    // Read the request line and headers; returns null if the client closed without sending anything
+    public HttpRequest readHead() throws IOException {
+        if (buffer == null) {
+            buffer = pool.acquire();
+        }
+        filled = 0;
+
+        int headerEnd = -1;
+        int scanFrom = 0;
+        while (headerEnd < 0) {
+            if (filled >= maxHeaderBytes) {
+                throw new HttpRequestException(413, "Request header block exceeds " + maxHeaderBytes + " bytes");
+            }
+            int read = in.read(buffer, filled, maxHeaderBytes - filled);
+            if (read == -1) {
+                if (filled == 0) {
+                    return null;
+                }
+                throw new HttpRequestException(400, "Connection closed inside the request header block");
+            }
+            filled += read;
+            headerEnd = findHeaderEnd(buffer, Math.max(0, scanFrom - 3), filled);
+            scanFrom = filled;
+        }
+
+        return parseHead(headerEnd);
+    }
+
+    // Read the body declared by Content-Length into the request
+    public void readBody(HttpRequest request) throws IOException {
+        long contentLength = request.getContentLength();
+        if (contentLength > maxBodyBytes) {
+            throw new HttpRequestException(413, "Request body of " + contentLength + " bytes exceeds " + maxBodyBytes);
+        }
+        int length = (int) contentLength;
+        int alreadyRead = Math.min(filled - bodyStart, length);
+
+        byte[] target;
+        int offset;
+        if (bodyStart + length <= buffer.length) {
+            // The body fits behind the headers in the pooled buffer
+            target = buffer;
+            offset = bodyStart;
+        } else {
+            target = new byte[length];
+            offset = 0;
+            System.arraycopy(buffer, bodyStart, target, 0, alreadyRead);
+        }
+
+        int position = offset + alreadyRead;
+        int end = offset + length;
+        while (position < end) {
+            int read = in.read(target, position, end - position);
+            if (read == -1) {
+                throw new HttpRequestException(400, "Request body shorter than Content-Length");
+            }
+            position += read;
+        }
+        request.setBody(target, offset, length);
+    }
+
+    // Skip the body of a request that will not be processed. A body over maxBodyBytes is
+    // refused with 413 without reading it, as readBody would, so a client cannot keep the
+    // connection busy by declaring a huge body.
+    public void discardBody(HttpRequest request) throws IOException {
+        if (request.getContentLength() > maxBodyBytes) {
+            throw new HttpRequestException(413, "Request body of " + request.getContentLength()
+                    + " bytes exceeds " + maxBodyBytes);
+        }
+        long remaining = request.getContentLength() - (filled - bodyStart);
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    return;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    // Return the pooled buffer; the last request's body is no longer valid afterwards
+    public void release() {
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    // Index just past the blank line ending the header block, or -1.
+    // Accepts bare LF line endings as well as CRLF.
+    static int findHeaderEnd(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (i + 1 < to && data[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < to && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private HttpRequest parseHead(int headerEnd) throws HttpRequestException {
+        bodyStart = headerEnd;
+
+        int lineStart = 0;
+        int lineEnd = lineEnd(lineStart, headerEnd);
+        String requestLine = ascii(lineStart, lineEnd);
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || parts[0].isEmpty()) {
+            throw new HttpRequestException(400, "Malformed request line: " + requestLine);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        lineStart = nextLine(lineEnd, headerEnd);
+        while (lineStart < headerEnd) {
+            lineEnd = lineEnd(lineStart, headerEnd);
+            if (lineEnd == lineStart) {
+                break; // blank line
+            }
+            int colon = indexOf((byte) ':', lineStart, lineEnd);
+            if (colon > lineStart) {
+                headers.put(ascii(lineStart, colon).trim().toLowerCase(), ascii(colon + 1, lineEnd).trim());
+            }
+            lineStart = nextLine(lineEnd, headerEnd);
+        }
+        return new HttpRequest(parts[0], parts[1], headers);
+    }
+
+    // End of the line starting at from, excluding the CR/LF
+    private int lineEnd(int from, int limit) {
+        int newline = indexOf((byte) '\n', from, limit);
+        int end = newline < 0 ? limit : newline;
+        return end > from && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private int nextLine(int lineEnd, int limit) {
+        int newline = indexOf((byte) '\n', lineEnd, limit);
+        return newline < 0 ? limit : newline + 1;
+    }
+
+    private int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String ascii(int from, int to) {
+        return new String(buffer, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,109 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// An HTTP response with a fully built body, written with Content-Length.
+// The body may be a list of parts (see StationStore.toJsonParts), written one after
+// the other without being joined.
+public class HttpResponse {
+    private final int status;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final List<byte[]> bodyParts;
+    private final int bodyLength;
+    private byte[] body;
+
+    public HttpResponse(int status, byte[] body) {
+        this(status, List.of(body));
+    }
+
+    public HttpResponse(int status, List<byte[]> bodyParts) {
+        this.status = status;
+        this.bodyParts = bodyParts;
+        int length = 0;
+        for (byte[] part : bodyParts) {
+            length += part.length;
+        }
+        this.bodyLength = length;
+    }
+
+    public HttpResponse(int status) {
+        this(status, new byte[0]);
+    }
+
+    public static HttpResponse text(int status, String contentType, String body) {
+        return new HttpResponse(status, body.getBytes(StandardCharsets.UTF_8)).header("Content-Type", contentType);
+    }
+
+    public HttpResponse header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    // The whole body; a body of several parts is joined on first use
+    public byte[] getBody() {
+        if (body == null) {
+            if (bodyParts.size() == 1) {
+                body = bodyParts.get(0);
+            } else {
+                body = new byte[bodyLength];
+                int position = 0;
+                for (byte[] part : bodyParts) {
+                    System.arraycopy(part, 0, body, position, part.length);
+                    position += part.length;
+                }
+            }
+        }
+        return body;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public String getBodyText() {
+        return new String(getBody(), StandardCharsets.UTF_8);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reasonPhrase(status)).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(bodyLength).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+        for (byte[] part : bodyParts) {
+            out.write(part);
+        }
+        out.flush();
+    }
+
+    static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 413: return "Payload Too Large";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Unknown";
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.weather.aggregation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Client for an AggregationServer running in the same JVM (see AggregationServer.inProcessClient()).
+// Requests are handed straight to the server's handlers: admission control, metrics,
+// deduplication and the Lamport clock behave as over HTTP, but there are no sockets,
+// no HTTP framing and no copy of the body.
+public class InProcessClient {
+    private final AggregationServer server;
+    private final LamportClock lamportClock = new LamportClock(); // Initialize Lamport clock
+
+    InProcessClient(AggregationServer server) {
+        this.server = server;
+    }
+
+    // Send a request as it would arrive over HTTP
+    public HttpResponse send(HttpRequest request) {
+        return server.handleInProcess(request);
+    }
+
+    // PUT a station reading, as ContentServer does; 201 means it was stored
+    public HttpResponse put(Map<String, String> data) {
+        return put(CustomJsonUtils.createJsonString(data).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // PUT an already encoded JSON body
+    public HttpResponse put(byte[] json) {
+        lamportClock.tick(); // Tick before sending the request
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Content-Length", String.valueOf(json.length));
+        headers.put("Lamport-Clock", String.valueOf(lamportClock.getTime()));
+        HttpResponse response = send(new HttpRequest("PUT", "/weather.json", headers, json));
+        updateClock(response);
+        return response;
+    }
+
+    // GET all stations as the raw JSON response
+    public HttpResponse get() {
+        lamportClock.tick(); // Tick before sending the request
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Lamport-Clock", String.valueOf(lamportClock.getTime()));
+        HttpResponse response = send(new HttpRequest("GET", "/weather.json", headers, new byte[0]));
+        updateClock(response);
+        return response;
+    }
+
+    // GET all stations, parsed
+    public List<WeatherStation> getStations() throws IOException {
+        HttpResponse response = get();
+        if (response.getStatus() == 503) {
+            throw new ServiceUnavailableException(ServiceUnavailableException.parseRetryAfter(
+                    response.getHeader("Retry-After"), 1000));
+        }
+        if (response.getStatus() != 200) {
+            throw new IOException("Unexpected response code " + response.getStatus());
+        }
+        List<WeatherStation> stations = new ArrayList<>();
+        WeatherJsonStreamParser.parse(new ByteArrayInputStream(response.getBody()), stations::add);
+        return stations;
+    }
+
+    public int getClock() {
+        return lamportClock.getTime();
+    }
+
+    private void updateClock(HttpResponse response) {
+        String clockHeader = response.getHeader("Lamport-Clock");
+        if (clockHeader != null) {
+            lamportClock.update(Integer.parseInt(clockHeader));
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Load generator for the aggregation server.
+// Sends a configurable mix of PUT (spread across many simulated stations) and GET
+// requests, either closed-loop (each worker waits for its response before sending
+// the next request) or open-loop at a fixed rate. In open-loop mode latency is
+// measured from the time a request was *scheduled* to be sent, so a stalled server
+// is not hidden by workers that fall behind (coordinated-omission correction).
+public class LoadGenerator {
+
+    private static final int SOCKET_TIMEOUT_MS = 10000;
+
+    private final String host;
+    private final int port;
+    private final String mode;
+    private final int threads;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final double putRatio;
+    private final int stations;
+    private final int binaryPort; // send PUTs over the binary ingest protocol when positive
+
+    // Persistent binary ingest connection of each worker thread
+    private final ThreadLocal<Socket> binaryConnection = new ThreadLocal<>();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Map<Integer, AtomicLong> statusCounts = new HashMap<>();
+    private final AtomicLong lamportClock = new AtomicLong();
+
+    public LoadGenerator(Map<String, String> options) {
+        URI uri = URI.create(options.getOrDefault("url", "http://localhost:4567"));
+        this.host = uri.getHost();
+        this.port = uri.getPort() == -1 ? 80 : uri.getPort();
+        this.mode = options.getOrDefault("mode", "closed");
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+        this.putRatio = Double.parseDouble(options.getOrDefault("put-ratio", "0.5"));
+        this.stations = Integer.parseInt(options.getOrDefault("stations", "1000"));
+        this.binaryPort = Integer.parseInt(options.getOrDefault("binary-port", "0"));
+
+        if (!mode.equals("closed") && !mode.equals("open")) {
+            throw new IllegalArgumentException("Unknown mode: " + mode + " (expected closed or open)");
+        }
+        for (int status : new int[]{200, 201, 400, 500, 503}) {
+            statusCounts.put(status, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options;
+        try {
+            options = parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return;
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.run();
+
+        System.out.println(generator.textReport());
+        String json = generator.jsonReport();
+        if (options.containsKey("json")) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(options.get("json")), StandardCharsets.UTF_8)) {
+                writer.write(json);
+            }
+            System.out.println("JSON report written to " + options.get("json"));
+        } else {
+            System.out.println(json);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java LoadGenerator [--url http://localhost:4567] [--mode closed|open]"
+                + " [--threads 8] [--rate 1000] [--duration 30] [--warmup 5]"
+                + " [--put-ratio 0.5] [--stations 1000] [--binary-port 4568] [--json report.json]");
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Invalid argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    // Run the configured workload and block until it completes
+    public void run() throws InterruptedException {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int workerIndex = i;
+            Thread worker = new Thread(() -> {
+                try {
+                    if (mode.equals("open")) {
+                        runOpenLoop(workerIndex, start, measureStart, end);
+                    } else {
+                        runClosedLoop(start, measureStart, end);
+                    }
+                } finally {
+                    closeBinaryConnection();
+                }
+            }, "load-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    // Each worker sends its next request as soon as the previous one completes
+    private void runClosedLoop(long start, long measureStart, long end) {
+        LockSupport.parkNanos(start - System.nanoTime());
+        LatencyHistogram local = new LatencyHistogram();
+
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            long finished = sendOne(now >= measureStart);
+            if (now >= measureStart) {
+                local.record(finished - now);
+            }
+        }
+        latency.add(local);
+        serviceTime.add(local);
+    }
+
+    // Workers share the target rate; request n of worker k is due at start + (k + n * threads) * interval
+    private void runOpenLoop(int workerIndex, long start, long measureStart, long end) {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        LatencyHistogram localLatency = new LatencyHistogram();
+        LatencyHistogram localService = new LatencyHistogram();
+
+        for (long n = 0; ; n++) {
+            long intended = start + (long) ((workerIndex + n * threads) * intervalNanos);
+            if (intended >= end) {
+                break;
+            }
+
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            long sent = System.nanoTime();
+            boolean measured = intended >= measureStart;
+            long finished = sendOne(measured);
+            if (measured) {
+                // Corrected latency includes any time the request spent waiting to be sent
+                localLatency.record(finished - intended);
+                localService.record(finished - sent);
+            }
+        }
+        latency.add(localLatency);
+        serviceTime.add(localService);
+    }
+
+    // Send one PUT or GET and return the time at which the response was fully read
+    private long sendOne(boolean measured) {
+        boolean isPut = ThreadLocalRandom.current().nextDouble() < putRatio;
+        try {
+            int status = isPut ? sendPut() : sendGet();
+            if (measured) {
+                (isPut ? puts : gets).incrementAndGet();
+                AtomicLong counter = statusCounts.get(status);
+                if (counter != null) {
+                    counter.incrementAndGet();
+                }
+                if (status >= 400) {
+                    errors.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            if (measured) {
+                errors.incrementAndGet();
+            }
+        }
+        return System.nanoTime();
+    }
+
+    private int sendPut() throws IOException {
+        int station = ThreadLocalRandom.current().nextInt(stations);
+        if (binaryPort > 0) {
+            return sendBinaryPut(station);
+        }
+        String body = CustomJsonUtils.createJsonString(stationReading(station));
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+
+        String headers = "PUT /weather.json HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "User-Agent: LoadGenerator/1.0\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + "Lamport-Clock: " + lamportClock.incrementAndGet() + "\r\n"
+                + "\r\n";
+        return exchange(headers, bodyBytes);
+    }
+
+    private int sendGet() throws IOException {
+        String headers = "GET /weather.json HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "User-Agent: LoadGenerator/1.0\r\n"
+                + "Lamport-Clock: " + lamportClock.incrementAndGet() + "\r\n"
+                + "\r\n";
+        return exchange(headers, new byte[0]);
+    }
+
+    // Send one frame on the worker's persistent binary connection and wait for its ack
+    private int sendBinaryPut(int station) throws IOException {
+        byte[] frame = BinaryProtocol.encodePut(stationReading(station), (int) lamportClock.incrementAndGet());
+        Socket socket = binaryConnection.get();
+        try {
+            if (socket == null) {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, binaryPort), SOCKET_TIMEOUT_MS);
+                socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                binaryConnection.set(socket);
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(frame);
+            out.flush();
+
+            byte[] ack = new byte[BinaryProtocol.ACK_SIZE];
+            new DataInputStream(socket.getInputStream()).readFully(ack);
+            switch (ack[0]) {
+                case BinaryProtocol.STATUS_OK:
+                    return 201;
+                case BinaryProtocol.STATUS_BAD_REQUEST:
+                    return 400;
+                case BinaryProtocol.STATUS_OVERLOADED:
+                    return 503;
+                default:
+                    return 500;
+            }
+        } catch (IOException e) {
+            if (socket != null) {
+                socket.close();
+            }
+            binaryConnection.remove();
+            throw e;
+        }
+    }
+
+    // Close the worker's binary connection at the end of its run
+    private void closeBinaryConnection() {
+        Socket socket = binaryConnection.get();
+        if (socket == null) {
+            return;
+        }
+        binaryConnection.remove();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    // Write a raw request and drain the response until the server closes the connection
+    private int exchange(String headers, byte[] body) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), SOCKET_TIMEOUT_MS);
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(headers.getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read = in.read(buffer);
+            if (read <= 0) {
+                throw new EOFException("Empty response");
+            }
+            int status = parseStatus(buffer, read);
+            while (in.read(buffer) != -1) {
+                // drain the rest of the response
+            }
+            return status;
+        }
+    }
+
+    // Extract the status code from "HTTP/1.1 201 Created"
+    private static int parseStatus(byte[] buffer, int length) throws IOException {
+        int space = -1;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == ' ') {
+                space = i;
+                break;
+            }
+        }
+        if (space < 0 || space + 4 > length) {
+            throw new IOException("Malformed status line");
+        }
+        return (buffer[space + 1] - '0') * 100 + (buffer[space + 2] - '0') * 10 + (buffer[space + 3] - '0');
+    }
+
+    // Build a plausible reading for a simulated station
+    private static Map<String, String> stationReading(int station) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, String> data = new HashMap<>();
+        data.put("id", "LOAD" + station);
+        data.put("name", "Load Station " + station);
+        data.put("state", "SA");
+        data.put("time_zone", "CST");
+        data.put("air_temp", String.format(Locale.ROOT, "%.1f", 10 + random.nextDouble() * 20));
+        data.put("apparent_t", String.format(Locale.ROOT, "%.1f", 8 + random.nextDouble() * 20));
+        data.put("press", String.format(Locale.ROOT, "%.1f", 1000 + random.nextDouble() * 30));
+        data.put("rel_hum", String.valueOf(random.nextInt(101)));
+        data.put("wind_dir", "S");
+        data.put("wind_spd_kmh", String.valueOf(random.nextInt(60)));
+        return data;
+    }
+
+    public double getThroughput() {
+        return (puts.get() + gets.get()) / (durationNanos / 1e9);
+    }
+
+    public String textReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "Mode: %s, threads: %d%s, duration: %ds, put ratio: %.2f, stations: %d%n",
+                mode, threads, mode.equals("open") ? String.format(Locale.ROOT, ", target rate: %.0f req/s", rate) : "",
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos), putRatio, stations));
+        report.append(String.format(Locale.ROOT, "Requests: %d (PUT %d, GET %d), errors: %d%n",
+                puts.get() + gets.get(), puts.get(), gets.get(), errors.get()));
+        report.append(String.format(Locale.ROOT, "Throughput: %.1f req/s%n", getThroughput()));
+        report.append(formatLatency(mode.equals("open") ? "Latency (corrected)" : "Latency", latency));
+        if (mode.equals("open")) {
+            report.append(formatLatency("Service time", serviceTime));
+        }
+        return report.toString();
+    }
+
+    private static String formatLatency(String label, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "%s: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                label, histogram.getMean() / 1e6,
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMax() / 1e6);
+    }
+
+    public String jsonReport() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"mode\":\"").append(mode).append("\",");
+        json.append("\"threads\":").append(threads).append(",");
+        if (mode.equals("open")) {
+            json.append("\"target_rate\":").append(rate).append(",");
+        }
+        json.append("\"duration_s\":").append(TimeUnit.NANOSECONDS.toSeconds(durationNanos)).append(",");
+        json.append("\"put_ratio\":").append(putRatio).append(",");
+        json.append("\"stations\":").append(stations).append(",");
+        json.append("\"requests\":").append(puts.get() + gets.get()).append(",");
+        json.append("\"puts\":").append(puts.get()).append(",");
+        json.append("\"gets\":").append(gets.get()).append(",");
+        json.append("\"errors\":").append(errors.get()).append(",");
+        json.append("\"status\":{");
+        int count = 0;
+        for (Map.Entry<Integer, AtomicLong> entry : statusCounts.entrySet()) {
+            if (count++ > 0) {
+                json.append(",");
+            }
+            json.append("\"").append(entry.getKey()).append("\":").append(entry.getValue().get());
+        }
+        json.append("},");
+        json.append("\"throughput_rps\":").append(String.format(Locale.ROOT, "%.1f", getThroughput())).append(",");
+        json.append("\"latency_ms\":").append(latencyJson(latency));
+        if (mode.equals("open")) {
+            json.append(",\"service_time_ms\":").append(latencyJson(serviceTime));
+        }
+        json.append("}");
+        return json.toString();
+    }
+
+    private static String latencyJson(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "{\"mean\":%.3f,\"p50\":%.3f,\"p99\":%.3f,\"p999\":%.3f,\"max\":%.3f}",
+                histogram.getMean() / 1e6,
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMax() / 1e6);
+    }
+}
@@ -0,0 +1,407 @@
+package com.weather.aggregation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+// Station store that keeps each reading pre-encoded as its GET response member,
+// "<id>":{...}, in direct ByteBuffer slabs outside the Java heap.
+//
+// Records are placed in slots of power-of-two size classes (64 bytes and up); each
+// size class owns its own slabs and a free list, so a slot released by expiry or by a
+// reading that changed size class is reused by the next record of that class.
+// An on-heap open-addressing index maps station ID to slot, record length and update
+// time; the heap holds only the ID strings and a few primitive arrays, however many
+// readings are stored.
+//
+// GET builds the response by copying record bytes straight out of the slabs. Readers
+// share a read lock; PUT and expiry take the write lock.
+public class OffHeapStationStore implements StationStore {
+
+    private static final int MIN_SLOT_BITS = 6; // 64 byte slots
+    private static final int SIZE_CLASSES = 16; // up to 2 MB slots, above the 1 MB body limit
+
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES];
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Open-addressing index with linear probing; a null key marks an empty slot
+    private String[] keys;
+    private int[] slots;        // sizeClass << 24 | slot number within the class
+    private int[] lengths;      // record length in bytes
+    private int[] valueOffsets; // start of the {...} object within the record
+    private long[] updatedAt;   // clock time of the last put
+    private int mask;
+    private volatile int size;
+
+    public OffHeapStationStore(int slabBytes) {
+        this(slabBytes, WeatherEntry.EXPIRY_MS);
+    }
+
+    public OffHeapStationStore(int slabBytes, long ttlMs) {
+        this(slabBytes, ttlMs, System::currentTimeMillis);
+    }
+
+    // The clock is only replaced by tests
+    OffHeapStationStore(int slabBytes, long ttlMs, LongSupplier clock) {
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            sizeClasses[i] = new SizeClass(1 << (MIN_SLOT_BITS + i), slabBytes);
+        }
+        allocateIndex(1024);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void put(String id, Map<String, String> data) {
+        // Encode outside the lock
+        byte[] prefix = ("\"" + id + "\":").getBytes(StandardCharsets.UTF_8);
+        byte[] value = CustomJsonUtils.createJsonString(data).getBytes(StandardCharsets.UTF_8);
+        int length = prefix.length + value.length;
+        int sizeClass = sizeClassFor(length);
+        long now = clock.getAsLong();
+
+        lock.writeLock().lock();
+        try {
+            int index = find(id);
+            int slot;
+            if (index >= 0 && slots[index] >>> 24 == sizeClass) {
+                slot = slots[index]; // same size class: overwrite in place
+            } else {
+                if (index >= 0) {
+                    release(slots[index]);
+                } else {
+                    index = insert(id);
+                }
+                slot = (sizeClass << 24) | sizeClasses[sizeClass].allocate();
+            }
+
+            ByteBuffer slab = slabFor(slot);
+            slab.position(offsetOf(slot));
+            slab.put(prefix);
+            slab.put(value);
+
+            slots[index] = slot;
+            lengths[index] = length;
+            valueOffsets[index] = prefix.length;
+            updatedAt[index] = now;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean touch(String id) {
+        long now = clock.getAsLong();
+        lock.writeLock().lock();
+        try {
+            int index = find(id);
+            if (index < 0) {
+                return false;
+            }
+            updatedAt[index] = now;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int removeExpired(BiConsumer<String, byte[]> onExpired) {
+        long cutoff = clock.getAsLong() - ttlMs;
+        List<String> removedIds = new ArrayList<>();
+        List<byte[]> removedValues = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try {
+            int index = 0;
+            while (index < keys.length) {
+                if (keys[index] == null || updatedAt[index] >= cutoff) {
+                    index++;
+                    continue;
+                }
+                int slot = slots[index];
+                byte[] value = new byte[lengths[index] - valueOffsets[index]];
+                ByteBuffer slab = slabFor(slot).duplicate();
+                slab.position(offsetOf(slot) + valueOffsets[index]);
+                slab.get(value);
+
+                removedIds.add(keys[index]);
+                removedValues.add(value);
+                release(slot);
+                // Deletion shifts a later entry into this position, so look at it again
+                delete(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (int i = 0; i < removedIds.size(); i++) {
+            onExpired.accept(removedIds.get(i), removedValues.get(i));
+        }
+        return removedIds.size();
+    }
+
+    @Override
+    public byte[] toJson() {
+        lock.readLock().lock();
+        try {
+            byte[] json = new byte[2 + rangeLength(0, keys.length)];
+            json[0] = '{';
+            copyRange(0, keys.length, json, 1);
+            json[json.length - 1] = '}';
+            return json;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Partitions are equal ranges of the index, each copied out of the slabs by its own
+    // task while the caller holds the read lock for all of them
+    @Override
+    public List<byte[]> toJsonParts(ForkJoinPool pool, int parallelThreshold) {
+        if (size < parallelThreshold) {
+            return List.of(toJson());
+        }
+        lock.readLock().lock();
+        try {
+            int partitions = Math.min(keys.length, pool.getParallelism() * 4);
+            int rangeSize = (keys.length + partitions - 1) / partitions;
+            List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(partitions);
+            for (int from = 0; from < keys.length; from += rangeSize) {
+                int start = from;
+                int end = Math.min(keys.length, from + rangeSize);
+                tasks.add(pool.submit(() -> {
+                    byte[] members = new byte[rangeLength(start, end)];
+                    copyRange(start, end, members, 0);
+                    return members;
+                }));
+            }
+            return StationStore.joinParts(tasks);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bytes the records of index positions [from, to) take, comma separated
+    private int rangeLength(int from, int to) {
+        int total = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (keys[i] != null) {
+                total += lengths[i];
+                count++;
+            }
+        }
+        return total + Math.max(0, count - 1);
+    }
+
+    // Copy the records of index positions [from, to), comma separated, into target at position
+    private void copyRange(int from, int to, byte[] target, int position) {
+        // Every caller gets its own views of the slabs, so concurrent copies do not share positions
+        ByteBuffer[][] views = new ByteBuffer[SIZE_CLASSES][];
+        boolean first = true;
+        for (int i = from; i < to; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            if (!first) {
+                target[position++] = ',';
+            }
+            first = false;
+            int slot = slots[i];
+            ByteBuffer slab = view(views, slot);
+            slab.position(offsetOf(slot));
+            slab.get(target, position, lengths[i]);
+            position += lengths[i];
+        }
+    }
+
+    // Bytes of direct memory reserved by the slabs
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            long reserved = 0;
+            for (SizeClass sizeClass : sizeClasses) {
+                reserved += (long) sizeClass.slabs.size() * sizeClass.slabCapacity;
+            }
+            return reserved;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer view(ByteBuffer[][] views, int slot) {
+        int sizeClass = slot >>> 24;
+        int slab = (slot & 0xFFFFFF) / sizeClasses[sizeClass].slotsPerSlab;
+        ByteBuffer[] classViews = views[sizeClass];
+        if (classViews == null || classViews.length <= slab) {
+            classViews = classViews == null
+                    ? new ByteBuffer[sizeClasses[sizeClass].slabs.size()]
+                    : Arrays.copyOf(classViews, sizeClasses[sizeClass].slabs.size());
+            views[sizeClass] = classViews;
+        }
+        if (classViews[slab] == null) {
+            classViews[slab] = sizeClasses[sizeClass].slabs.get(slab).duplicate();
+        }
+        return classViews[slab];
+    }
+
+    private static int sizeClassFor(int length) {
+        int bits = Math.max(MIN_SLOT_BITS, 32 - Integer.numberOfLeadingZeros(length - 1));
+        int sizeClass = bits - MIN_SLOT_BITS;
+        if (sizeClass >= SIZE_CLASSES) {
+            throw new IllegalArgumentException("Reading of " + length + " bytes is too large for the off-heap store");
+        }
+        return sizeClass;
+    }
+
+    private ByteBuffer slabFor(int slot) {
+        SizeClass sizeClass = sizeClasses[slot >>> 24];
+        return sizeClass.slabs.get((slot & 0xFFFFFF) / sizeClass.slotsPerSlab);
+    }
+
+    private int offsetOf(int slot) {
+        SizeClass sizeClass = sizeClasses[slot >>> 24];
+        return ((slot & 0xFFFFFF) % sizeClass.slotsPerSlab) * sizeClass.slotSize;
+    }
+
+    private void release(int slot) {
+        sizeClasses[slot >>> 24].free(slot & 0xFFFFFF);
+    }
+
+    // ---- index ----
+
+    private void allocateIndex(int capacity) {
+        keys = new String[capacity];
+        slots = new int[capacity];
+        lengths = new int[capacity];
+        valueOffsets = new int[capacity];
+        updatedAt = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(String id) {
+        for (int i = hash(id) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Claim an index position for a new key (the key must not be present)
+    private int insert(String id) {
+        if ((size + 1) * 3 > keys.length * 2) {
+            resize();
+        }
+        int i = hash(id) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        size++;
+        return i;
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldSlots = slots;
+        int[] oldLengths = lengths;
+        int[] oldValueOffsets = valueOffsets;
+        long[] oldUpdatedAt = updatedAt;
+        allocateIndex(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null) {
+                continue;
+            }
+            int i = hash(oldKeys[j]) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            slots[i] = oldSlots[j];
+            lengths[i] = oldLengths[j];
+            valueOffsets[i] = oldValueOffsets[j];
+            updatedAt[i] = oldUpdatedAt[j];
+        }
+    }
+
+    // Remove the entry at index, shifting later entries of the probe run back (no tombstones)
+    private void delete(int index) {
+        int hole = index;
+        int i = index;
+        while (true) {
+            i = (i + 1) & mask;
+            if (keys[i] == null) {
+                break;
+            }
+            int home = hash(keys[i]) & mask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, i]
+            boolean homeBetween = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+            if (!homeBetween) {
+                keys[hole] = keys[i];
+                slots[hole] = slots[i];
+                lengths[hole] = lengths[i];
+                valueOffsets[hole] = valueOffsets[i];
+                updatedAt[hole] = updatedAt[i];
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        size--;
+    }
+
+    // Slabs and free slots of one slot size
+    private static final class SizeClass {
+        final int slotSize;
+        final int slotsPerSlab;
+        final int slabCapacity;
+        final List<ByteBuffer> slabs = new ArrayList<>();
+        private int[] free = new int[16];
+        private int freeCount;
+        private int nextUnused; // slots past this one have never been handed out
+
+        SizeClass(int slotSize, int slabBytes) {
+            this.slotSize = slotSize;
+            this.slotsPerSlab = Math.max(1, slabBytes / slotSize);
+            this.slabCapacity = slotsPerSlab * slotSize;
+        }
+
+        int allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (nextUnused == slabs.size() * slotsPerSlab) {
+                slabs.add(ByteBuffer.allocateDirect(slabCapacity));
+            }
+            return nextUnused++;
+        }
+
+        void free(int slot) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = slot;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.weather.aggregation;
+
+import java.util.function.BiConsumer;
+
+// Immutable hash array mapped trie (HAMT).
+// plus() and minus() return a new map that shares every untouched node with the
+// old one, so an update copies only the O(log32 n) nodes on the path to the key.
+// A reader holding a reference to a map always sees the same, complete contents.
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(K key) {
+        return root == null ? null : root.get(key, spread(key.hashCode()), 0);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    // Return a map with key bound to value (null values are not supported)
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+        int hash = spread(key.hashCode());
+        if (root == null) {
+            return new PersistentHashMap<>(new Leaf<>(key, hash, value), 1);
+        }
+        boolean[] added = new boolean[1];
+        Node<K, V> newRoot = root.put(key, hash, value, 0, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    // Return a map without key
+    public PersistentHashMap<K, V> minus(K key) {
+        if (root == null) {
+            return this;
+        }
+        Node<K, V> newRoot = root.remove(key, spread(key.hashCode()), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    // Visit every entry, in trie order
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            root.forEach(action);
+        }
+    }
+
+    // Number of partitions the map splits into for parallel traversal: one per child of
+    // the root node, so at most 32
+    public int partitionCount() {
+        if (root instanceof Branch) {
+            return ((Branch<K, V>) root).children.length;
+        }
+        return root != null ? 1 : 0;
+    }
+
+    // Visit the entries of one partition, in trie order. Visiting partitions 0 to
+    // partitionCount() - 1 in turn is the same as forEach().
+    public void forEachInPartition(int partition, BiConsumer<? super K, ? super V> action) {
+        if (root instanceof Branch) {
+            ((Branch<K, V>) root).children[partition].forEach(action);
+        } else if (root != null && partition == 0) {
+            root.forEach(action);
+        }
+    }
+
+    // Mix high bits into the low bits used by the first trie levels
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Node arrays are only created here: Java has no generic array creation
+    @SuppressWarnings("unchecked")
+    private static <K, V> Leaf<K, V>[] newLeaves(int length) {
+        return (Leaf<K, V>[]) new Leaf<?, ?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newNodes(int length) {
+        return (Node<K, V>[]) new Node<?, ?>[length];
+    }
+
+    private abstract static class Node<K, V> {
+        abstract V get(K key, int hash, int shift);
+
+        abstract Node<K, V> put(K key, int hash, V value, int shift, boolean[] added);
+
+        // Returns null when the node becomes empty
+        abstract Node<K, V> remove(K key, int hash, int shift);
+
+        abstract void forEach(BiConsumer<? super K, ? super V> action);
+    }
+
+    private static final class Leaf<K, V> extends Node<K, V> {
+        final K key;
+        final int hash;
+        final V value;
+
+        Leaf(K key, int hash, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        @Override
+        V get(K key, int hash, int shift) {
+            return hash == this.hash && key.equals(this.key) ? value : null;
+        }
+
+        @Override
+        Node<K, V> put(K key, int hash, V value, int shift, boolean[] added) {
+            if (hash == this.hash && key.equals(this.key)) {
+                return value == this.value ? this : new Leaf<>(key, hash, value);
+            }
+            added[0] = true;
+            Leaf<K, V> leaf = new Leaf<>(key, hash, value);
+            if (hash == this.hash) {
+                Leaf<K, V>[] leaves = newLeaves(2);
+                leaves[0] = this;
+                leaves[1] = leaf;
+                return new Collision<>(hash, leaves);
+            }
+            return Branch.of(this, this.hash, leaf, hash, shift);
+        }
+
+        @Override
+        Node<K, V> remove(K key, int hash, int shift) {
+            return hash == this.hash && key.equals(this.key) ? null : this;
+        }
+
+        @Override
+        void forEach(BiConsumer<? super K, ? super V> action) {
+            action.accept(key, value);
+        }
+    }
+
+    // Keys whose full 32 bit hashes are equal
+    private static final class Collision<K, V> extends Node<K, V> {
+        final int hash;
+        final Leaf<K, V>[] leaves;
+
+        Collision(int hash, Leaf<K, V>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        V get(K key, int hash, int shift) {
+            if (hash != this.hash) {
+                return null;
+            }
+            for (Leaf<K, V> leaf : leaves) {
+                if (key.equals(leaf.key)) {
+                    return leaf.value;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Node<K, V> put(K key, int hash, V value, int shift, boolean[] added) {
+            if (hash != this.hash) {
+                added[0] = true;
+                return Branch.of(this, this.hash, new Leaf<>(key, hash, value), hash, shift);
+            }
+            for (int i = 0; i < leaves.length; i++) {
+                if (key.equals(leaves[i].key)) {
+                    Leaf<K, V>[] copy = leaves.clone();
+                    copy[i] = new Leaf<>(key, hash, value);
+                    return new Collision<>(hash, copy);
+                }
+            }
+            added[0] = true;
+            Leaf<K, V>[] copy = newLeaves(leaves.length + 1);
+            System.arraycopy(leaves, 0, copy, 0, leaves.length);
+            copy[leaves.length] = new Leaf<>(key, hash, value);
+            return new Collision<>(hash, copy);
+        }
+
+        @Override
+        Node<K, V> remove(K key, int hash, int shift) {
+            if (hash != this.hash) {
+                return this;
+            }
+            for (int i = 0; i < leaves.length; i++) {
+                if (key.equals(leaves[i].key)) {
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    Leaf<K, V>[] copy = newLeaves(leaves.length - 1);
+                    System.arraycopy(leaves, 0, copy, 0, i);
+                    System.arraycopy(leaves, i + 1, copy, i, leaves.length - i - 1);
+                    return new Collision<>(hash, copy);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Leaf<K, V> leaf : leaves) {
+                action.accept(leaf.key, leaf.value);
+            }
+        }
+    }
+
+    // Interior node: a 32 bit bitmap of occupied slots and a compact array of children
+    private static final class Branch<K, V> extends Node<K, V> {
+        final int bitmap;
+        final Node<K, V>[] children;
+
+        Branch(int bitmap, Node<K, V>[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        // Smallest branch holding two nodes with different hashes
+        static <K, V> Node<K, V> of(Node<K, V> a, int hashA, Node<K, V> b, int hashB, int shift) {
+            int indexA = (hashA >>> shift) & MASK;
+            int indexB = (hashB >>> shift) & MASK;
+            if (indexA == indexB) {
+                Node<K, V>[] child = newNodes(1);
+                child[0] = of(a, hashA, b, hashB, shift + BITS);
+                return new Branch<>(1 << indexA, child);
+            }
+            Node<K, V>[] children = newNodes(2);
+            children[indexA < indexB ? 0 : 1] = a;
+            children[indexA < indexB ? 1 : 0] = b;
+            return new Branch<>((1 << indexA) | (1 << indexB), children);
+        }
+
+        @Override
+        V get(K key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            return children[Integer.bitCount(bitmap & (bit - 1))].get(key, hash, shift + BITS);
+        }
+
+        @Override
+        Node<K, V> put(K key, int hash, V value, int shift, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Node<K, V>[] copy = newNodes(children.length + 1);
+                System.arraycopy(children, 0, copy, 0, index);
+                copy[index] = new Leaf<>(key, hash, value);
+                System.arraycopy(children, index, copy, index + 1, children.length - index);
+                return new Branch<>(bitmap | bit, copy);
+            }
+            Node<K, V> child = children[index];
+            Node<K, V> newChild = child.put(key, hash, value, shift + BITS, added);
+            if (newChild == child) {
+                return this;
+            }
+            Node<K, V>[] copy = children.clone();
+            copy[index] = newChild;
+            return new Branch<>(bitmap, copy);
+        }
+
+        @Override
+        Node<K, V> remove(K key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Node<K, V> child = children[index];
+            Node<K, V> newChild = child.remove(key, hash, shift + BITS);
+            if (newChild == child) {
+                return this;
+            }
+
+            if (newChild == null) {
+                if (children.length == 1) {
+                    return null;
+                }
+                if (children.length == 2 && !(children[1 - index] instanceof Branch)) {
+                    // A lone leaf can move up to the parent's slot
+                    return children[1 - index];
+                }
+                Node<K, V>[] copy = newNodes(children.length - 1);
+                System.arraycopy(children, 0, copy, 0, index);
+                System.arraycopy(children, index + 1, copy, index, children.length - index - 1);
+                return new Branch<>(bitmap & ~bit, copy);
+            }
+
+            if (children.length == 1 && !(newChild instanceof Branch)) {
+                return newChild;
+            }
+            Node<K, V>[] copy = children.clone();
+            copy[index] = newChild;
+            return new Branch<>(bitmap, copy);
+        }
+
+        @Override
+        void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Node<K, V> child : children) {
+                child.forEach(action);
+            }
+        }
+    }
+}
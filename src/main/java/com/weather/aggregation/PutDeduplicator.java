@@ -0,0 +1,113 @@
+package com.weather.aggregation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+// Recognizes PUT bodies that repeat, byte for byte, the last payload accepted for a
+// station (content server retries and scheduled re-pushes). Such a PUT only needs the
+// station's expiry restarted: no parse, no new entry, no clock tick and no new store
+// snapshot.
+//
+// Per station it keeps a 64 bit FNV-1a hash and the length of the last accepted body.
+// Every write to the store goes through store(), which replaces the digest in the same
+// atomic step, so a digest always describes the reading actually held for the station.
+public class PutDeduplicator {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Hash and length of a request body
+    public static final class Digest {
+        final long hash;
+        final int length;
+
+        Digest(long hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        boolean matches(Digest other) {
+            return other != null && other.hash == hash && other.length == length;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Digest> digests = new ConcurrentHashMap<>();
+
+    public static Digest digest(byte[] body, int offset, int length) {
+        return new Digest(hash(body, offset, length), length);
+    }
+
+    // If digest matches the last payload stored for id, restart the station's expiry with
+    // refresh and return true; false means the body has to be parsed and stored
+    public boolean refreshIfRepeat(String id, Digest digest, Predicate<String> refresh) {
+        boolean[] repeat = {false};
+        digests.computeIfPresent(id, (key, last) -> {
+            repeat[0] = digest.matches(last) && refresh.test(key);
+            return last;
+        });
+        return repeat[0];
+    }
+
+    // Run the store of a reading for id and record digest as its payload (null when the
+    // reading did not come from a hashable body); returns what store returns
+    public int store(String id, Digest digest, IntSupplier store) {
+        int[] result = {0};
+        digests.compute(id, (key, last) -> {
+            result[0] = store.getAsInt();
+            return digest;
+        });
+        return result[0];
+    }
+
+    // Drop the digest of a station that left the store
+    public void forget(String id) {
+        digests.remove(id);
+    }
+
+    static long hash(byte[] data, int offset, int length) {
+        long hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // Find the string value of the top-level "id" key with a byte scan, without parsing
+    // the body; returns null when there is none
+    static String extractId(byte[] body, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i + 4 <= end; i++) {
+            if (body[i] != '"' || body[i + 1] != 'i' || body[i + 2] != 'd' || body[i + 3] != '"') {
+                continue;
+            }
+            int p = skipWhitespace(body, i + 4, end);
+            if (p >= end || body[p] != ':') {
+                continue; // "id" inside a value
+            }
+            p = skipWhitespace(body, p + 1, end);
+            if (p >= end || body[p] != '"') {
+                return null;
+            }
+            int valueStart = p + 1;
+            int valueEnd = valueStart;
+            while (valueEnd < end && body[valueEnd] != '"') {
+                valueEnd++;
+            }
+            if (valueEnd >= end || valueEnd == valueStart) {
+                return null;
+            }
+            return new String(body, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(byte[] data, int from, int end) {
+        while (from < end && (data[from] == ' ' || data[from] == '\t' || data[from] == '\r' || data[from] == '\n')) {
+            from++;
+        }
+        return from;
+    }
+}
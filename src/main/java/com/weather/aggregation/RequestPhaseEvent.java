@@ -0,0 +1,34 @@
+package com.weather.aggregation;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR event covering one phase of handling a request in ClientHandler.
+// Disabled by default; enable it with src/main/resources/tracing.jfc (see the Makefile).
+@Name("com.weather.aggregation.RequestPhase")
+@Label("Request Phase")
+@Category({"Weather", "Aggregation Server"})
+@Description("Time spent in one phase of handling a client request")
+@Enabled(false)
+@StackTrace(false)
+public class RequestPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Method")
+    String method;
+
+    @Label("Station ID")
+    String stationId;
+
+    @Label("Payload Size")
+    @DataAmount
+    long payloadSize;
+}
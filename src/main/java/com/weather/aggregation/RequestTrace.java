@@ -0,0 +1,83 @@
+package com.weather.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects RequestPhaseEvents for a single request.
+// The station ID and payload size are only known part way through a request, so
+// finished phases are held until finish() fills in those fields and commits them.
+// When the event is disabled start() hands out a shared no-op trace, leaving one
+// enabled check per request on the hot path.
+class RequestTrace {
+    private static final RequestTrace DISABLED = new RequestTrace(false);
+
+    private final boolean enabled;
+    private final List<RequestPhaseEvent> phases;
+    private RequestPhaseEvent current;
+    private String method;
+    private String stationId;
+    private long payloadSize;
+
+    private RequestTrace(boolean enabled) {
+        this.enabled = enabled;
+        this.phases = enabled ? new ArrayList<>(6) : null;
+    }
+
+    static RequestTrace start() {
+        return new RequestPhaseEvent().isEnabled() ? new RequestTrace(true) : DISABLED;
+    }
+
+    // End the current phase (if any) and begin timing the next one
+    void phase(String name) {
+        if (!enabled) {
+            return;
+        }
+        endCurrent();
+        current = new RequestPhaseEvent();
+        current.phase = name;
+        current.begin();
+    }
+
+    void setMethod(String method) {
+        if (enabled) {
+            this.method = method;
+        }
+    }
+
+    void setStationId(String stationId) {
+        if (enabled) {
+            this.stationId = stationId;
+        }
+    }
+
+    void setPayloadSize(long payloadSize) {
+        if (enabled) {
+            this.payloadSize = payloadSize;
+        }
+    }
+
+    // End the current phase and commit every recorded phase
+    void finish() {
+        if (!enabled) {
+            return;
+        }
+        endCurrent();
+        for (RequestPhaseEvent event : phases) {
+            if (event.shouldCommit()) {
+                event.method = method;
+                event.stationId = stationId;
+                event.payloadSize = payloadSize;
+                event.commit();
+            }
+        }
+        phases.clear();
+    }
+
+    private void endCurrent() {
+        if (current != null) {
+            current.end();
+            phases.add(current);
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.weather.aggregation;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+// Server-side counters and histograms, rendered in the Prometheus text format.
+// Everything on the recording path is a LongAdder (striped, lock-free), looked up
+// by array index, so a request only pays for a couple of uncontended increments.
+public class ServerMetrics {
+
+    static final String[] METHODS = {"GET", "PUT", "BINARY", "OTHER"};
+    static final int GET = 0;
+    static final int PUT = 1;
+    static final int BINARY = 2; // frames on the binary ingest listener
+    static final int OTHER = 3;
+    static final int[] STATUSES = {200, 201, 204, 400, 404, 413, 500, 503};
+
+    // Upper bounds of the latency histogram buckets, in seconds
+    private static final double[] LATENCY_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5
+    };
+    private static final long[] LATENCY_BUCKETS_NANOS = new long[LATENCY_BUCKETS.length];
+
+    static {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            LATENCY_BUCKETS_NANOS[i] = (long) (LATENCY_BUCKETS[i] * 1e9);
+        }
+    }
+
+    // [method][status index], the last status slot counts anything not in STATUSES
+    private final LongAdder[][] requests = new LongAdder[METHODS.length][STATUSES.length + 1];
+    // [method][bucket index], the last bucket is +Inf
+    private final LongAdder[][] latencyBuckets = new LongAdder[METHODS.length][LATENCY_BUCKETS.length + 1];
+    private final LongAdder[] latencySumNanos = new LongAdder[METHODS.length];
+
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder duplicatePuts = new LongAdder();
+    private volatile double expirationsPerSecond;
+
+    private final IntSupplier stationCount;
+    private final LamportClock lamportClock;
+
+    public ServerMetrics(IntSupplier stationCount, LamportClock lamportClock) {
+        this.stationCount = stationCount;
+        this.lamportClock = lamportClock;
+
+        for (int m = 0; m < METHODS.length; m++) {
+            for (int s = 0; s < requests[m].length; s++) {
+                requests[m][s] = new LongAdder();
+            }
+            for (int b = 0; b < latencyBuckets[m].length; b++) {
+                latencyBuckets[m][b] = new LongAdder();
+            }
+            latencySumNanos[m] = new LongAdder();
+        }
+    }
+
+    // Map a request method to its index in METHODS
+    public static int methodIndex(String method) {
+        if ("GET".equals(method)) {
+            return GET;
+        } else if ("PUT".equals(method)) {
+            return PUT;
+        }
+        return OTHER;
+    }
+
+    private static int statusIndex(int status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i] == status) {
+                return i;
+            }
+        }
+        return STATUSES.length;
+    }
+
+    // Record a completed request
+    public void recordRequest(int methodIndex, int status, long durationNanos) {
+        requests[methodIndex][statusIndex(status)].increment();
+
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_NANOS.length && durationNanos > LATENCY_BUCKETS_NANOS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets[methodIndex][bucket].increment();
+        latencySumNanos[methodIndex].add(durationNanos);
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    // Record a connection turned away because the connection limit was reached
+    public void recordRejectedConnection() {
+        rejectedConnections.increment();
+    }
+
+    // Record a PUT whose body repeated the station's last accepted payload
+    public void recordDuplicatePut() {
+        duplicatePuts.increment();
+    }
+
+    // Record the result of one expiry sweep
+    public void recordExpirySweep(int expired, long intervalNanos) {
+        expirations.add(expired);
+        expirationsPerSecond = intervalNanos > 0 ? expired / (intervalNanos / 1e9) : 0.0;
+    }
+
+    // Render all metrics in the Prometheus text exposition format (version 0.0.4)
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        out.append("# HELP weather_requests_total Requests handled, by method and status.\n");
+        out.append("# TYPE weather_requests_total counter\n");
+        for (int m = 0; m < METHODS.length; m++) {
+            for (int s = 0; s < requests[m].length; s++) {
+                long value = requests[m][s].sum();
+                if (value == 0) {
+                    continue;
+                }
+                String status = s < STATUSES.length ? String.valueOf(STATUSES[s]) : "other";
+                out.append("weather_requests_total{method=\"").append(METHODS[m])
+                        .append("\",status=\"").append(status).append("\"} ").append(value).append('\n');
+            }
+        }
+
+        out.append("# HELP weather_request_duration_seconds Time from reading the request line to writing the response.\n");
+        out.append("# TYPE weather_request_duration_seconds histogram\n");
+        for (int m = 0; m < METHODS.length; m++) {
+            long cumulative = 0;
+            for (int b = 0; b < latencyBuckets[m].length; b++) {
+                cumulative += latencyBuckets[m][b].sum();
+                String le = b < LATENCY_BUCKETS.length ? formatDouble(LATENCY_BUCKETS[b]) : "+Inf";
+                out.append("weather_request_duration_seconds_bucket{method=\"").append(METHODS[m])
+                        .append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("weather_request_duration_seconds_sum{method=\"").append(METHODS[m]).append("\"} ")
+                    .append(formatDouble(latencySumNanos[m].sum() / 1e9)).append('\n');
+            out.append("weather_request_duration_seconds_count{method=\"").append(METHODS[m]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+
+        appendGauge(out, "weather_stations", "Stations currently held in the store.", stationCount.getAsInt());
+        appendGauge(out, "weather_active_connections", "Client connections currently open.", activeConnections.sum());
+
+        out.append("# HELP weather_rejected_connections_total Connections refused with 503 at the connection limit.\n");
+        out.append("# TYPE weather_rejected_connections_total counter\n");
+        out.append("weather_rejected_connections_total ").append(rejectedConnections.sum()).append('\n');
+
+        out.append("# HELP weather_duplicate_puts_total PUTs that repeated the last payload and only refreshed expiry.\n");
+        out.append("# TYPE weather_duplicate_puts_total counter\n");
+        out.append("weather_duplicate_puts_total ").append(duplicatePuts.sum()).append('\n');
+
+        out.append("# HELP weather_expired_entries_total Entries removed by the expiry checker.\n");
+        out.append("# TYPE weather_expired_entries_total counter\n");
+        out.append("weather_expired_entries_total ").append(expirations.sum()).append('\n');
+
+        out.append("# HELP weather_expirations_per_second Expiry rate observed by the most recent sweep.\n");
+        out.append("# TYPE weather_expirations_per_second gauge\n");
+        out.append("weather_expirations_per_second ").append(formatDouble(expirationsPerSecond)).append('\n');
+
+        appendGauge(out, "weather_lamport_clock", "Current Lamport clock of the server.", lamportClock.getTime());
+
+        out.append("# HELP weather_log_messages_dropped_total Log messages dropped because the log queue was full.\n");
+        out.append("# TYPE weather_log_messages_dropped_total counter\n");
+        out.append("weather_log_messages_dropped_total ").append(AsyncLogger.get().getDroppedCount()).append('\n');
+        return out.toString();
+    }
+
+    private static void appendGauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String formatDouble(double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+}
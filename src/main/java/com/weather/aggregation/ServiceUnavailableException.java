@@ -0,0 +1,49 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Thrown by the clients when the aggregation server answers 503 Service Unavailable.
+// Carries the delay requested by the server's Retry-After header.
+public class ServiceUnavailableException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMs;
+
+    public ServiceUnavailableException(long retryAfterMs) {
+        super("Server overloaded, retry after " + retryAfterMs + " ms");
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    // Build the exception from a 503 response, falling back to defaultDelayMs without a usable Retry-After
+    public static ServiceUnavailableException fromResponse(HttpURLConnection connection, long defaultDelayMs) {
+        return new ServiceUnavailableException(parseRetryAfter(connection.getHeaderField("Retry-After"), defaultDelayMs));
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date
+    static long parseRetryAfter(String header, long defaultDelayMs) {
+        if (header == null || header.trim().isEmpty()) {
+            return defaultDelayMs;
+        }
+        String value = header.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // not delta-seconds, try an HTTP date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return defaultDelayMs;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.weather.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+
+// Storage engine holding the latest reading per station.
+// Selected with -Daggregation.store (or AggregationServer.Config.store): "heap" (default, WeatherStore) keeps WeatherEntry
+// objects in a persistent map; "offheap" (OffHeapStationStore) keeps the encoded JSON
+// in direct memory slabs so large station counts do not load the garbage collector.
+public interface StationStore {
+
+    int size();
+
+    // Store a station's reading, replacing any previous one and restarting its expiry
+    void put(String id, Map<String, String> data);
+
+    // Restart a station's expiry without changing its reading; false if the station is not stored
+    boolean touch(String id);
+
+    // Remove every expired station, passing its ID and UTF-8 JSON object to onExpired;
+    // returns the number removed
+    int removeExpired(BiConsumer<String, byte[]> onExpired);
+
+    // All stations as the UTF-8 GET response body: {"<id>":{...},...}
+    byte[] toJson();
+
+    // The same body as consecutive parts to be written in order. A store holding at least
+    // parallelThreshold stations splits itself into partitions and encodes them in parallel
+    // on pool, one part per partition; smaller stores return toJson() as the only part.
+    List<byte[]> toJsonParts(ForkJoinPool pool, int parallelThreshold);
+
+    // Wait for the encoded partitions, each a comma separated run of "<id>":{...} members,
+    // and frame them, in order, as one JSON object
+    static List<byte[]> joinParts(List<ForkJoinTask<byte[]>> partitions) {
+        List<byte[]> parts = new ArrayList<>(partitions.size() * 2 + 1);
+        parts.add(new byte[]{'{'});
+        for (ForkJoinTask<byte[]> partition : partitions) {
+            byte[] members = partition.join();
+            if (members.length == 0) {
+                continue;
+            }
+            if (parts.size() > 1) {
+                parts.add(new byte[]{','});
+            }
+            parts.add(members);
+        }
+        parts.add(new byte[]{'}'});
+        return parts;
+    }
+
+    // Create the named engine, keeping stations for ttlMs after their last PUT; slabBytes
+    // sizes the direct memory slabs of the off-heap engine
+    static StationStore create(String engine, long ttlMs, int slabBytes) {
+        switch (engine) {
+            case "heap":
+                return new WeatherStore(ttlMs);
+            case "offheap":
+                return new OffHeapStationStore(slabBytes, ttlMs);
+            default:
+                throw new IllegalArgumentException("Unknown aggregation.store: " + engine);
+        }
+    }
+}
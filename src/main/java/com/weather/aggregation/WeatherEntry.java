@@ -4,8 +4,11 @@ import java.time.Instant;
 import java.util.Map;
 
 public class WeatherEntry {
+    // Default time after which an entry not refreshed is removed by the expiry checker
+    static final long EXPIRY_MS = 30_000;
+
     private Map<String, String> data;
-    private Instant timestamp;
+    private volatile Instant timestamp; // refreshed in place by repeated PUTs
 
     public WeatherEntry(Map<String, String> data) {
         this.data = data;
@@ -22,6 +25,10 @@ public class WeatherEntry {
 
     public boolean isExpired() {
         // Check if the entry is older than 30 seconds
-        return Instant.now().isAfter(timestamp.plusSeconds(30));
+        return isExpired(EXPIRY_MS);
+    }
+
+    public boolean isExpired(long ttlMs) {
+        return Instant.now().isAfter(timestamp.plusMillis(ttlMs));
     }
 }
@@ -0,0 +1,138 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Parser for content server input files holding one or more station records of
+// "key:value" lines. A record ends at a blank line, or where an "id" line starts a
+// new station while the current record already has an id.
+//
+// The file is memory-mapped in windows and scanned as bytes: lines and the ':'
+// separator are located in the mapped buffer and only the trimmed key and value
+// are decoded into Strings, so no intermediate line Strings are created.
+public class WeatherFileParser {
+
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final int windowSize;
+    private byte[] scratch = new byte[256];
+
+    public WeatherFileParser() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    // Small windows are only useful for exercising the remapping in tests
+    WeatherFileParser(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    // Parse every record in the file, handing each one to onRecord as soon as it is complete
+    public long parse(Path file, Consumer<Map<String, String>> onRecord) throws IOException {
+        long records = 0;
+        Map<String, String> record = new HashMap<>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long windowStart = 0;
+
+            while (windowStart < fileSize) {
+                int length = (int) Math.min(windowSize, fileSize - windowStart);
+                boolean lastWindow = windowStart + length == fileSize;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+
+                int lineStart = 0;
+                while (lineStart < length) {
+                    int lineEnd = indexOfNewline(window, lineStart, length);
+                    if (lineEnd < 0) {
+                        if (!lastWindow) {
+                            break; // line continues in the next window
+                        }
+                        lineEnd = length;
+                    }
+
+                    if (isBlank(window, lineStart, lineEnd)) {
+                        if (!record.isEmpty()) {
+                            onRecord.accept(record);
+                            records++;
+                            record = new HashMap<>();
+                        }
+                    } else {
+                        int colon = indexOf(window, (byte) ':', lineStart, lineEnd);
+                        if (colon >= 0) {
+                            String key = decodeTrimmed(window, lineStart, colon);
+                            if (key.equals("id") && record.containsKey("id")) {
+                                onRecord.accept(record);
+                                records++;
+                                record = new HashMap<>();
+                            }
+                            record.put(key, decodeTrimmed(window, colon + 1, lineEnd));
+                        }
+                    }
+                    lineStart = lineEnd + 1;
+                }
+
+                if (lineStart == 0 && !lastWindow) {
+                    throw new IOException("Line longer than the " + windowSize + " byte mapping window");
+                }
+                windowStart += Math.min(lineStart, length);
+            }
+        }
+
+        if (!record.isEmpty()) {
+            onRecord.accept(record);
+            records++;
+        }
+        return records;
+    }
+
+    private static int indexOfNewline(MappedByteBuffer buffer, int from, int to) {
+        return indexOf(buffer, (byte) '\n', from, to);
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isBlank(MappedByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Decode [from, to) as UTF-8 after trimming surrounding whitespace
+    private String decodeTrimmed(MappedByteBuffer buffer, int from, int to) {
+        while (from < to && isWhitespace(buffer.get(from))) {
+            from++;
+        }
+        while (to > from && isWhitespace(buffer.get(to - 1))) {
+            to--;
+        }
+        int length = to - from;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(from + i);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,181 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Streaming parser for the GET response body: {"<id>":{"<field>":<value>,...},...}
+// Stations are handed to the callback as soon as their object is complete, so the
+// whole body is never held as one String. Field values may be strings, numbers or
+// literals (kept as their text); nested objects and arrays are rejected.
+public class WeatherJsonStreamParser {
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final StringBuilder text = new StringBuilder(64);
+
+    private WeatherJsonStreamParser(Reader in) {
+        this.in = in;
+    }
+
+    // Parse a complete response body; returns the number of stations
+    public static long parse(InputStream body, Consumer<WeatherStation> onStation) throws IOException {
+        return new WeatherJsonStreamParser(new InputStreamReader(body, StandardCharsets.UTF_8)).parseStations(onStation);
+    }
+
+    private long parseStations(Consumer<WeatherStation> onStation) throws IOException {
+        long stations = 0;
+        expect('{');
+        if (peekNonWhitespace() == '}') {
+            next();
+            return 0;
+        }
+        while (true) {
+            String id = readString();
+            expect(':');
+            onStation.accept(new WeatherStation(id, readFields()));
+            stations++;
+
+            char c = nextNonWhitespace();
+            if (c == '}') {
+                return stations;
+            } else if (c != ',') {
+                throw error("Expected ',' or '}' after station " + id);
+            }
+        }
+    }
+
+    private Map<String, String> readFields() throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        expect('{');
+        if (peekNonWhitespace() == '}') {
+            next();
+            return fields;
+        }
+        while (true) {
+            String key = readString();
+            expect(':');
+            fields.put(key, readValue());
+
+            char c = nextNonWhitespace();
+            if (c == '}') {
+                return fields;
+            } else if (c != ',') {
+                throw error("Expected ',' or '}' after field " + key);
+            }
+        }
+    }
+
+    private String readValue() throws IOException {
+        char c = peekNonWhitespace();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            throw error("Nested values are not supported");
+        }
+        // Number or literal: everything up to the next delimiter
+        text.setLength(0);
+        while (true) {
+            int p = peek();
+            if (p < 0 || p == ',' || p == '}' || Character.isWhitespace(p)) {
+                break;
+            }
+            text.append(next());
+        }
+        if (text.length() == 0) {
+            throw error("Missing value");
+        }
+        return text.toString();
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        text.setLength(0);
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch (escaped) {
+                case 'n': text.append('\n'); break;
+                case 't': text.append('\t'); break;
+                case 'r': text.append('\r'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(next(), 16);
+                        if (digit < 0) {
+                            throw error("Invalid \\u escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default: text.append(escaped); // \" \\ \/
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        char c = nextNonWhitespace();
+        if (c != expected) {
+            throw error("Expected '" + expected + "' but found '" + c + "'");
+        }
+    }
+
+    private char nextNonWhitespace() throws IOException {
+        peekNonWhitespace();
+        return next();
+    }
+
+    private char peekNonWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c < 0) {
+                throw error("Unexpected end of response");
+            }
+            if (!Character.isWhitespace(c)) {
+                return (char) c;
+            }
+            position++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    private char next() throws IOException {
+        if (peek() < 0) {
+            throw error("Unexpected end of response");
+        }
+        return buffer[position++];
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed weather response: " + message);
+    }
+}
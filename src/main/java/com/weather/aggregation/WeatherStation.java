@@ -0,0 +1,31 @@
+package com.weather.aggregation;
+
+import java.util.Map;
+
+// One station's reading as returned by a GET, e.g. {"IDS60901":{"id":"IDS60901",...}}
+public class WeatherStation {
+    private final String id;
+    private final Map<String, String> fields;
+
+    public WeatherStation(String id, Map<String, String> fields) {
+        this.id = id;
+        this.fields = fields;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public String get(String field) {
+        return fields.get(field);
+    }
+
+    @Override
+    public String toString() {
+        return "\"" + id + "\":" + CustomJsonUtils.createJsonString(fields);
+    }
+}
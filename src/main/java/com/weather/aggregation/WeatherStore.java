@@ -0,0 +1,149 @@
+package com.weather.aggregation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+
+// Latest weather entry per station.
+// The contents live in an immutable PersistentHashMap published through a single
+// volatile reference. Readers take snapshot() and iterate it without locks; they
+// always see one consistent point in time, however many PUTs or expiry sweeps run
+// meanwhile. Writers are serialized and publish a new map that shares all
+// untouched structure with the previous one.
+public class WeatherStore implements StationStore {
+
+    private volatile PersistentHashMap<String, WeatherEntry> snapshot = PersistentHashMap.empty();
+    private final Object writeLock = new Object();
+    private final long ttlMs;
+
+    public WeatherStore() {
+        this(WeatherEntry.EXPIRY_MS);
+    }
+
+    public WeatherStore(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    // Point-in-time view of the store; never changes once returned
+    public PersistentHashMap<String, WeatherEntry> snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    public WeatherEntry get(String id) {
+        return snapshot.get(id);
+    }
+
+    @Override
+    public void put(String id, Map<String, String> data) {
+        put(id, new WeatherEntry(data));
+    }
+
+    public void put(String id, WeatherEntry entry) {
+        synchronized (writeLock) {
+            snapshot = snapshot.plus(id, entry);
+        }
+    }
+
+    // The entry is refreshed in place, so the published snapshot stays the same
+    @Override
+    public boolean touch(String id) {
+        synchronized (writeLock) {
+            // Under the lock, so an expiry sweep either sees the new timestamp or has already removed the entry
+            WeatherEntry entry = snapshot.get(id);
+            if (entry == null) {
+                return false;
+            }
+            entry.updateTimestamp();
+            return true;
+        }
+    }
+
+    @Override
+    public int removeExpired(BiConsumer<String, byte[]> onExpired) {
+        // Find candidates on a snapshot without holding the write lock
+        List<String> candidates = new ArrayList<>();
+        snapshot.forEach((id, entry) -> {
+            if (entry.isExpired(ttlMs)) {
+                candidates.add(id);
+            }
+        });
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        List<String> removedIds = new ArrayList<>(candidates.size());
+        List<WeatherEntry> removedEntries = new ArrayList<>(candidates.size());
+        synchronized (writeLock) {
+            PersistentHashMap<String, WeatherEntry> current = snapshot;
+            for (String id : candidates) {
+                // The station may have been refreshed since the scan
+                WeatherEntry entry = current.get(id);
+                if (entry != null && entry.isExpired(ttlMs)) {
+                    current = current.minus(id);
+                    removedIds.add(id);
+                    removedEntries.add(entry);
+                }
+            }
+            snapshot = current;
+        }
+
+        for (int i = 0; i < removedIds.size(); i++) {
+            String json = CustomJsonUtils.createJsonString(removedEntries.get(i).getData());
+            onExpired.accept(removedIds.get(i), json.getBytes(StandardCharsets.UTF_8));
+        }
+        return removedIds.size();
+    }
+
+    // Serialize one immutable snapshot, so concurrent PUTs and expiry cannot tear the response
+    @Override
+    public byte[] toJson() {
+        PersistentHashMap<String, WeatherEntry> current = snapshot;
+        StringBuilder json = new StringBuilder(64 + current.size() * 256);
+        json.append("{");
+
+        boolean[] first = {true};
+        current.forEach((id, entry) -> appendMember(json, first, id, entry));
+        json.append("}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Partitions are the subtries under the snapshot's root, each encoded by its own task
+    @Override
+    public List<byte[]> toJsonParts(ForkJoinPool pool, int parallelThreshold) {
+        PersistentHashMap<String, WeatherEntry> current = snapshot;
+        if (current.size() < parallelThreshold || current.partitionCount() < 2) {
+            return List.of(toJson());
+        }
+
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+        int averageSize = current.size() / current.partitionCount();
+        for (int i = 0; i < current.partitionCount(); i++) {
+            int partition = i;
+            tasks.add(pool.submit(() -> {
+                StringBuilder json = new StringBuilder(64 + averageSize * 256);
+                boolean[] first = {true};
+                current.forEachInPartition(partition, (id, entry) -> appendMember(json, first, id, entry));
+                return json.toString().getBytes(StandardCharsets.UTF_8);
+            }));
+        }
+        return StationStore.joinParts(tasks);
+    }
+
+    private static void appendMember(StringBuilder json, boolean[] first, String id, WeatherEntry entry) {
+        if (!first[0]) {
+            json.append(",");
+        }
+        first[0] = false;
+        json.append("\"").append(id).append("\":");
+        json.append(CustomJsonUtils.createJsonString(entry.getData()));
+    }
+}
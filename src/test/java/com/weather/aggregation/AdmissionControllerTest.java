@@ -0,0 +1,59 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+
+    // Test that requests over the in-flight limit are rejected until one completes
+    @Test
+    public void testInFlightLimit() throws Exception {
+        AdmissionController admission = new AdmissionController(10, 2, 0, 0, 3);
+        InetAddress client = InetAddress.getLoopbackAddress();
+
+        assertEquals(0, admission.admitRequest(client));
+        assertEquals(0, admission.admitRequest(client));
+        assertEquals(3, admission.admitRequest(client));
+
+        admission.endRequest();
+        assertEquals(0, admission.admitRequest(client));
+    }
+
+    // Test that each client gets its own token bucket
+    @Test
+    public void testPerClientRateLimit() throws Exception {
+        AdmissionController admission = new AdmissionController(10, 100, 1, 2, 1);
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+
+        assertEquals(0, admission.admitRequest(first));
+        assertEquals(0, admission.admitRequest(first));
+        long retryAfter = admission.admitRequest(first);
+        assertTrue(retryAfter >= 1, "Expected a Retry-After for the third request in the burst");
+
+        assertEquals(0, admission.admitRequest(second));
+    }
+
+    // Test the connection limit
+    @Test
+    public void testConnectionLimit() {
+        AdmissionController admission = new AdmissionController(1, 10, 0, 0, 1);
+
+        assertTrue(admission.tryOpenConnection());
+        assertFalse(admission.tryOpenConnection());
+        admission.connectionClosed();
+        assertTrue(admission.tryOpenConnection());
+    }
+
+    // Test parsing of both Retry-After forms
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(5000, ServiceUnavailableException.parseRetryAfter("5", 3000));
+        assertEquals(3000, ServiceUnavailableException.parseRetryAfter(null, 3000));
+        assertEquals(3000, ServiceUnavailableException.parseRetryAfter("soon", 3000));
+        assertEquals(0, ServiceUnavailableException.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT", 3000));
+    }
+}
@@ -1,12 +1,17 @@
 package com.weather.aggregation;
 
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -15,7 +20,31 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class AggregationServerTest  {
 
-    private final String serverUrl = "http://localhost:4567";
+    private static AggregationServer server;
+    private static String serverUrl;
+
+    // Run the tests against an embedded server on a free port instead of one started separately
+    @BeforeAll
+    public static void startServer() throws IOException {
+        server = new AggregationServer(new AggregationServer.Config().port(0));
+        server.start();
+        serverUrl = "http://localhost:" + server.getPort();
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.stop();
+    }
+
+    // The GET tests expect station IDS60901 whichever order the tests run in
+    @BeforeEach
+    public void seedStation() {
+        Map<String, String> data = new HashMap<>();
+        data.put("id", "IDS60901");
+        data.put("name", "Adelaide (West Terrace / ngayirdapira)");
+        data.put("state", "SA");
+        assertEquals(201, server.inProcessClient().put(data).getStatus());
+    }
 
     // Test sending a valid PUT request to the server
     @Test
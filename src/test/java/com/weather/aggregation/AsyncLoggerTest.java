@@ -0,0 +1,56 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncLoggerTest {
+
+    // Test that logging never blocks when the output is stalled and the queue is full
+    @Test
+    public void testDropsInsteadOfBlockingWhenQueueFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        AsyncLogger logger = new AsyncLogger(AsyncLogger.Level.INFO, 4, new PrintStream(stalled, true));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            logger.info("message " + i);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMs < 1000, "Logging blocked for " + elapsedMs + " ms");
+        assertTrue(logger.getDroppedCount() > 0);
+        release.countDown();
+    }
+
+    // Test that repeated messages with the same key are rate limited and counted
+    @Test
+    public void testRateLimitedMessages() throws InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AsyncLogger logger = new AsyncLogger(AsyncLogger.Level.INFO, 1024, new PrintStream(output, true));
+
+        for (int i = 0; i < 100; i++) {
+            logger.logLimited(AsyncLogger.Level.INFO, "expiry", "Removing expired entry: " + i);
+        }
+        logger.debug("below threshold");
+        Thread.sleep(500);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).trim().split("\\R");
+        assertEquals(10, lines.length);
+        assertFalse(output.toString(StandardCharsets.UTF_8).contains("below threshold"));
+    }
+}
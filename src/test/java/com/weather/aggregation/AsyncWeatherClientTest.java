@@ -0,0 +1,54 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncWeatherClientTest {
+
+    // Test that large responses from several servers are read and merged with a single
+    // parser thread, which must not starve the HTTP client of threads to deliver them
+    @Test
+    public void testFanOutWithLargeResponses() throws Exception {
+        List<AggregationServer> servers = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        AsyncWeatherClient client = new AsyncWeatherClient(1, new LamportClock());
+        try {
+            for (int s = 0; s < 3; s++) {
+                AggregationServer server = new AggregationServer(new AggregationServer.Config().port(0));
+                server.start();
+                servers.add(server);
+                urls.add("http://localhost:" + server.getPort() + "/weather.json");
+                InProcessClient putClient = server.inProcessClient();
+                for (int i = 0; i < 4000; i++) {
+                    Map<String, String> data = new HashMap<>();
+                    data.put("id", "S" + s + "-" + i);
+                    data.put("name", "Station " + i + " of server " + s + " with a reasonably long name");
+                    data.put("air_temp", String.valueOf(i % 40));
+                    assertEquals(201, putClient.put(data).getStatus());
+                }
+                assertTrue(server.getStore().toJson().length > 300_000);
+            }
+
+            List<AsyncWeatherClient.ServerResponse> responses = client.fetchAll(urls).get(20, TimeUnit.SECONDS);
+
+            assertEquals(3, responses.size());
+            for (AsyncWeatherClient.ServerResponse response : responses) {
+                assertTrue(response.isSuccess(), () -> String.valueOf(response.error));
+                assertEquals(4000, response.stations.size());
+            }
+            assertEquals(12000, AsyncWeatherClient.merge(responses).size());
+        } finally {
+            client.shutdown();
+            for (AggregationServer server : servers) {
+                server.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryProtocolTest {
+
+    // Test that a reading survives an encode/decode round trip unchanged
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, String> data = new HashMap<>();
+        data.put("id", "IDS60901");
+        data.put("name", "Adelaide (West Terrace / ngayirdapira)");
+        data.put("air_temp", "13.3");
+        data.put("lat", "-34.9");
+        data.put("rel_hum", "60");
+        data.put("local_date_time_full", "20230715160000");
+        data.put("press", "1023.90"); // not canonical, must be sent as a string
+        data.put("cloud", "Partly cloudy ☁");
+
+        byte[] frame = BinaryProtocol.encodePut(data, 42);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        int length = BinaryProtocol.readFrameLength(in);
+        assertEquals(frame.length - 4, length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        BinaryProtocol.Reading reading = BinaryProtocol.decodePut(payload, length);
+        assertEquals("IDS60901", reading.stationId);
+        assertEquals(42, reading.clock);
+        assertEquals(data, reading.data);
+        assertEquals(-1, BinaryProtocol.readFrameLength(in));
+    }
+
+    // Test that truncated frames are rejected instead of producing partial readings
+    @Test
+    public void testTruncatedFrameRejected() throws IOException {
+        Map<String, String> data = new HashMap<>();
+        data.put("id", "IDS60901");
+        data.put("air_temp", "13.3");
+        byte[] frame = BinaryProtocol.encodePut(data, 1);
+        byte[] payload = Arrays.copyOfRange(frame, 4, frame.length - 3);
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.decodePut(payload, payload.length));
+    }
+
+    // Test that absurd frame lengths are refused before allocating a buffer
+    @Test
+    public void testOversizedFrameLengthRejected() {
+        byte[] header = {0x7f, 0, 0, 0};
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+        assertThrows(IOException.class, () -> BinaryProtocol.readFrameLength(in));
+    }
+}
@@ -1,12 +1,19 @@
 package com.weather.aggregation;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -100,6 +107,60 @@ public class ContentServerTest  {
         System.out.println("Test for multiple ContentServer instances complete.");
     }
 
+    // Test that records a binary server turns away are resent after the Retry-After it sent
+    // (here none), without a newer reading of the same station being overwritten
+    @Test
+    public void testBinaryResendAfterOverload(@TempDir Path dir) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            content.append("id:ST").append(i % 8).append("\nair_temp:").append(i).append("\n\n");
+        }
+        Path data = dir.resolve("weather.txt");
+        createTestFile(data.toString(), content.toString());
+
+        // Stores readings in arrival order, turning away the sixth frame of the first connection
+        Map<String, String> stored = new ConcurrentHashMap<>();
+        AtomicBoolean overloadSent = new AtomicBoolean();
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        try (Socket socket = server.accept()) {
+                            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                            int length;
+                            for (int frame = 0; (length = BinaryProtocol.readFrameLength(in)) >= 0; frame++) {
+                                byte[] payload = new byte[length];
+                                in.readFully(payload);
+                                BinaryProtocol.Reading reading = BinaryProtocol.decodePut(payload, length);
+                                if (frame == 5 && overloadSent.compareAndSet(false, true)) {
+                                    BinaryProtocol.writeAck(out, BinaryProtocol.STATUS_OVERLOADED, 0, 0);
+                                } else {
+                                    stored.put(reading.stationId, reading.data.get("air_temp"));
+                                    BinaryProtocol.writeAck(out, BinaryProtocol.STATUS_OK, 0, 0);
+                                }
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // server socket closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            long start = System.currentTimeMillis();
+            ContentServer.main(new String[]{"--binary", "localhost:" + server.getLocalPort(), data.toString()});
+            assertTrue(System.currentTimeMillis() - start < 3000, "resent without the default retry delay");
+        }
+
+        assertTrue(overloadSent.get());
+        assertEquals(8, stored.size());
+        for (Map.Entry<String, String> station : stored.entrySet()) {
+            assertTrue(Integer.parseInt(station.getValue()) >= 32, station.getKey() + " holds " + station.getValue());
+        }
+    }
+
     // Helper method to create a sample file for testing
     private void createTestFile(String filePath, String content) throws IOException {
         File file = new File(filePath);
@@ -0,0 +1,350 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddedAggregationServerTest {
+
+    private static Map<String, String> reading(String id, String airTemp) {
+        Map<String, String> data = new HashMap<>();
+        data.put("id", id);
+        data.put("air_temp", airTemp);
+        return data;
+    }
+
+    // Test that PUT and GET work in-process, with the Lamport clock carried across
+    @Test
+    public void testInProcessPutAndGet() throws IOException {
+        AggregationServer server = new AggregationServer(new AggregationServer.Config().port(0));
+        InProcessClient client = server.inProcessClient(); // no need to start the listeners
+
+        HttpResponse put = client.put(reading("IDS60901", "13.3"));
+        assertEquals(201, put.getStatus());
+        int putClock = Integer.parseInt(put.getHeader("Lamport-Clock"));
+        assertTrue(client.getClock() > putClock);
+
+        assertEquals(400, client.send(new HttpRequest("PUT", "/weather.json", new HashMap<>(), new byte[0])).getStatus());
+
+        List<WeatherStation> stations = client.getStations();
+        assertEquals(1, stations.size());
+        assertEquals("13.3", stations.get(0).get("air_temp"));
+        assertEquals(1, server.getStore().size());
+    }
+
+    // Test that GET /metrics reports the requests, duplicate PUTs and stations seen so far
+    @Test
+    public void testMetrics() {
+        AggregationServer server = new AggregationServer(new AggregationServer.Config().port(0));
+        InProcessClient client = server.inProcessClient();
+        client.put(reading("A", "1.0"));
+        client.put(reading("A", "1.0")); // repeats the last payload
+        client.put(reading("B", "2.0"));
+        assertEquals(400, client.send(new HttpRequest("PUT", "/weather.json", new HashMap<>(), new byte[0])).getStatus());
+        client.get();
+        client.get();
+
+        HttpResponse response = client.send(new HttpRequest("GET", "/metrics", new HashMap<>(), new byte[0]));
+        assertEquals(200, response.getStatus());
+        assertEquals("text/plain; version=0.0.4", response.getHeader("Content-Type"));
+        List<String> lines = List.of(response.getBodyText().split("\n"));
+        for (String expected : List.of(
+                "# TYPE weather_requests_total counter",
+                "weather_requests_total{method=\"PUT\",status=\"201\"} 3",
+                "weather_requests_total{method=\"PUT\",status=\"400\"} 1",
+                "weather_requests_total{method=\"GET\",status=\"200\"} 2",
+                "# TYPE weather_request_duration_seconds histogram",
+                "weather_request_duration_seconds_bucket{method=\"PUT\",le=\"+Inf\"} 4",
+                "weather_request_duration_seconds_count{method=\"PUT\"} 4",
+                "weather_request_duration_seconds_count{method=\"GET\"} 2",
+                "weather_request_duration_seconds_count{method=\"BINARY\"} 0",
+                "weather_duplicate_puts_total 1",
+                "weather_stations 2",
+                "weather_active_connections 0",
+                "weather_rejected_connections_total 0")) {
+            assertTrue(lines.contains(expected), "missing " + expected);
+        }
+        assertFalse(response.getBodyText().contains("method=\"OTHER\",status="));
+
+        // Only /metrics itself bypasses admission control
+        InProcessClient closed = new AggregationServer(new AggregationServer.Config().admission(1024, 0))
+                .inProcessClient();
+        assertEquals(200, closed.send(new HttpRequest("GET", "/metrics", new HashMap<>(), new byte[0])).getStatus());
+        assertEquals(200, closed.send(new HttpRequest("GET", "/metrics?x=1", new HashMap<>(), new byte[0])).getStatus());
+        assertEquals(503, closed.send(new HttpRequest("GET", "/metricsX", new HashMap<>(), new byte[0])).getStatus());
+    }
+
+    // Test that instances in one JVM are isolated and that stop() releases the port
+    @Test
+    public void testIsolatedInstances() throws IOException {
+        AggregationServer first = new AggregationServer(new AggregationServer.Config().port(0));
+        AggregationServer second = new AggregationServer(new AggregationServer.Config().port(0).store("offheap"));
+        first.start();
+        second.start();
+        int firstPort = first.getPort();
+        try {
+            assertNotEquals(first.getPort(), second.getPort());
+            first.inProcessClient().put(reading("A", "1"));
+            second.inProcessClient().put(reading("B", "2"));
+
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + second.getPort() + "/weather.json").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            List<String> ids = new ArrayList<>();
+            WeatherJsonStreamParser.parse(connection.getInputStream(), station -> ids.add(station.getId()));
+            assertEquals(List.of("B"), ids);
+            assertEquals(1, first.getStore().size());
+        } finally {
+            first.stop();
+            second.stop();
+        }
+
+        assertFalse(first.isRunning());
+        try (ServerSocket rebound = new ServerSocket(firstPort)) {
+            assertEquals(firstPort, rebound.getLocalPort());
+        }
+    }
+
+    // Test that silent HTTP and binary connections are closed after the read timeout and
+    // give their connection permits back
+    @Test
+    public void testIdleConnectionsTimeOut() throws IOException, InterruptedException {
+        int binaryPort;
+        try (ServerSocket free = new ServerSocket(0)) {
+            binaryPort = free.getLocalPort();
+        }
+        AggregationServer server = new AggregationServer(new AggregationServer.Config()
+                .port(0).binaryPort(binaryPort).admission(2, 256).readTimeoutMs(300));
+        server.start();
+        try {
+            try (Socket idleHttp = new Socket("localhost", server.getPort());
+                 Socket idleBinary = new Socket("localhost", binaryPort)) {
+                idleHttp.setSoTimeout(5000);
+                idleBinary.setSoTimeout(5000);
+                assertEquals(-1, idleHttp.getInputStream().read());
+                assertEquals(-1, idleBinary.getInputStream().read());
+            }
+            assertEquals(200, getStatusWithin(server.getPort(), 2000));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that a connection whose handler thread cannot be started gives its permit back,
+    // on the HTTP and the binary listener
+    @Test
+    public void testFailedHandlerStartReleasesPermit() throws IOException, InterruptedException {
+        int binaryPort;
+        try (ServerSocket free = new ServerSocket(0)) {
+            binaryPort = free.getLocalPort();
+        }
+        AggregationServer server = new AggregationServer(new AggregationServer.Config()
+                .port(0).binaryPort(binaryPort).acceptors(1).admission(1, 256));
+        AtomicInteger started = new AtomicInteger();
+        server.handlerThreads = runnable -> {
+            if (started.incrementAndGet() <= 4) {
+                throw new OutOfMemoryError("unable to create native thread");
+            }
+            return new Thread(runnable);
+        };
+        server.start();
+        try {
+            for (int port : new int[]{server.getPort(), server.getPort(), binaryPort, binaryPort}) {
+                try (Socket failed = new Socket("localhost", port)) {
+                    failed.setSoTimeout(5000);
+                    assertEquals(-1, failed.getInputStream().read());
+                }
+            }
+            assertEquals(200, getStatusWithin(server.getPort(), 2000));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Status of GET /weather.json, retried until it is not 503 or the time is up
+    private static int getStatusWithin(int port, long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + port + "/weather.json").openConnection();
+            int status = connection.getResponseCode();
+            connection.disconnect();
+            if (status != 503 || System.currentTimeMillis() > deadline) {
+                return status;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    // Test that a short configured TTL expires stations
+    @Test
+    public void testConfiguredTtl() throws IOException, InterruptedException {
+        AggregationServer server = new AggregationServer(new AggregationServer.Config()
+                .port(0).ttlMs(200).expiryIntervalMs(50));
+        server.start();
+        try {
+            InProcessClient client = server.inProcessClient();
+            client.put(reading("SHORT", "20.1"));
+            assertEquals(1, client.getStations().size());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getStore().size() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(client.getStations().isEmpty());
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that admission limits and the off-heap slab size come from the instance's Config
+    @Test
+    public void testConfiguredAdmissionAndSlabs() {
+        AggregationServer limited = new AggregationServer(new AggregationServer.Config()
+                .clientRate(0.01, 1).retryAfterSeconds(7));
+        InProcessClient client = limited.inProcessClient();
+        assertEquals(201, client.put(reading("A", "1.0")).getStatus());
+        HttpResponse rejected = client.put(reading("A", "2.0"));
+        assertEquals(503, rejected.getStatus());
+        assertTrue(Integer.parseInt(rejected.getHeader("Retry-After")) > 1);
+
+        AggregationServer closed = new AggregationServer(new AggregationServer.Config()
+                .admission(1024, 0).retryAfterSeconds(7));
+        HttpResponse busy = closed.inProcessClient().put(reading("A", "1.0"));
+        assertEquals(503, busy.getStatus());
+        assertEquals("7", busy.getHeader("Retry-After"));
+
+        AggregationServer offHeap = new AggregationServer(new AggregationServer.Config()
+                .store("offheap").slabBytes(64 * 1024));
+        offHeap.inProcessClient().put(reading("A", "1.0"));
+        long reserved = ((OffHeapStationStore) offHeap.getStore()).getReservedBytes();
+        assertTrue(reserved > 0 && reserved <= 64 * 1024, "reserved " + reserved);
+    }
+
+    // Test that expired readings move to the history and are served by GET /history
+    @Test
+    public void testExpiredReadingsInHistory(@TempDir Path historyDir) throws IOException, InterruptedException {
+        AggregationServer server = new AggregationServer(new AggregationServer.Config()
+                .port(0).ttlMs(200).expiryIntervalMs(50).historyDir(historyDir));
+        server.start();
+        try {
+            InProcessClient client = server.inProcessClient();
+            client.put(reading("OLD", "9.5"));
+            client.put(reading("OTHER", "1.0"));
+
+            // The sweep writes the history out after removing the entries
+            HttpRequest query = new HttpRequest("GET", "/history?id=OLD", new HashMap<>(), new byte[0]);
+            HttpResponse history = client.send(query);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (history.getBodyText().equals("[]") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                history = client.send(query);
+            }
+            assertEquals(200, history.getStatus());
+            assertTrue(history.getBodyText().contains("\"reading\":{"));
+            assertTrue(history.getBodyText().contains("\"air_temp\":\"9.5\""));
+            assertFalse(history.getBodyText().contains("OTHER"));
+            HttpResponse other = client.send(new HttpRequest("GET", "/historyfoo", new HashMap<>(), new byte[0]));
+            assertTrue(other.getBodyText().startsWith("{"), "not a history query");
+            for (String malformed : List.of("/history?from=yesterday", "/history?id=%zz", "/history?from=%2")) {
+                assertEquals(400, client.send(new HttpRequest("GET", malformed, new HashMap<>(), new byte[0])).getStatus(),
+                        malformed);
+            }
+        } finally {
+            server.stop();
+        }
+        assertEquals(404, new AggregationServer(new AggregationServer.Config()).inProcessClient()
+                .send(new HttpRequest("GET", "/history", new HashMap<>(), new byte[0])).getStatus());
+    }
+
+    // Test that a GET response encoded in parallel partitions arrives whole over HTTP
+    @Test
+    public void testParallelGet() throws IOException {
+        AggregationServer server = new AggregationServer(new AggregationServer.Config().port(0).parallelGet(100, 4));
+        server.start();
+        try {
+            InProcessClient client = server.inProcessClient();
+            for (int i = 0; i < 500; i++) {
+                client.put(reading("ST" + i, String.valueOf(i % 40)));
+            }
+
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + server.getPort() + "/weather.json").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(server.getStore().toJson().length, connection.getContentLengthLong());
+            List<String> ids = new ArrayList<>();
+            WeatherJsonStreamParser.parse(connection.getInputStream(), station -> ids.add(station.getId()));
+            assertEquals(500, ids.size());
+            assertEquals(500, client.getStations().size());
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that the content server gives up on a record the server rejects instead of
+    // retrying it, so the records behind it are not held up
+    @Test
+    public void testContentServerSkipsRejectedRecord(@TempDir Path dir) throws IOException {
+        Path data = dir.resolve("weather.txt");
+        Files.write(data, "name:no id\n\nid:A\nair_temp:1\n\nid:B\nair_temp:2\n".getBytes(StandardCharsets.UTF_8));
+
+        AggregationServer server = new AggregationServer(new AggregationServer.Config().port(0));
+        server.start();
+        try {
+            long start = System.currentTimeMillis();
+            ContentServer.main(new String[]{"http://localhost:" + server.getPort(), data.toString()});
+            assertTrue(System.currentTimeMillis() - start < 3000, "the rejected record was retried");
+            assertEquals(2, server.getStore().size());
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that the content server's concurrent HTTP uploaders keep each station's readings
+    // in file order, so the last reading in the file is the one the server holds
+    @Test
+    public void testContentServerKeepsStationOrder(@TempDir Path dir) throws IOException {
+        // The final readings open the last batch, which is uploaded alongside the earlier ones
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 3508; i++) {
+            file.append("id:ST").append(i % 8).append("\nair_temp:").append(i).append("\n\n");
+        }
+        for (int i = 0; i < 492; i++) {
+            file.append("id:OTHER").append(i).append("\nair_temp:0\n\n");
+        }
+        Path data = dir.resolve("weather.txt");
+        Files.write(data, file.toString().getBytes(StandardCharsets.UTF_8));
+
+        AggregationServer server = new AggregationServer(new AggregationServer.Config().port(0));
+        server.start();
+        try {
+            ContentServer.main(new String[]{"http://localhost:" + server.getPort(), data.toString()});
+            List<WeatherStation> stations = server.inProcessClient().getStations();
+            assertEquals(500, stations.size());
+            for (WeatherStation station : stations) {
+                if (station.getId().startsWith("ST")) {
+                    // each station's final reading is one of records 3500 to 3507
+                    int airTemp = Integer.parseInt(station.get("air_temp"));
+                    assertTrue(airTemp >= 3500, station.getId() + " holds " + airTemp);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryStoreTest {
+
+    private static final long HOUR = 3_600_000;
+    private static final long DAY = 24 * HOUR;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong now = new AtomicLong(100 * DAY);
+
+    private HistoryStore open() throws IOException {
+        return new HistoryStore(dir, HOUR, 7 * DAY, now::get);
+    }
+
+    private static byte[] reading(String id, int airTemp) {
+        return ("{\"id\":\"" + id + "\",\"air_temp\":\"" + airTemp + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Archive times and air temperatures of the matching records, in order
+    private static List<String> query(HistoryStore history, String id, long from, long to) throws IOException {
+        List<String> results = new ArrayList<>();
+        String json = new String(history.query(id, from, to, Integer.MAX_VALUE), StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("[") && json.endsWith("]"));
+        for (String record : json.substring(1, json.length() - 1).split("(?<=}}),")) {
+            if (record.isEmpty()) {
+                continue;
+            }
+            String archivedAt = record.substring("{\"archivedAt\":".length(), record.indexOf(','));
+            String reading = record.substring(record.indexOf("\"reading\":") + "\"reading\":".length(), record.length() - 1);
+            if (id != null) {
+                assertEquals(id, CustomJsonUtils.parseJsonString(reading).get("id"));
+            }
+            results.add(archivedAt + "=" + CustomJsonUtils.parseJsonString(reading).get("air_temp"));
+        }
+        return results;
+    }
+
+    private List<String> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).filter(name -> name.endsWith(".seg"))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    // Test that records are found by station and time range, across partitions and
+    // through the sparse index, and that only flushed records are visible
+    @Test
+    public void testAppendAndQuery() throws IOException {
+        try (HistoryStore history = open()) {
+            long start = now.get();
+            for (int i = 0; i < 3000; i++) {
+                history.append(i % 2 == 0 ? "EVEN" : "ODD", reading(i % 2 == 0 ? "EVEN" : "ODD", i));
+                now.addAndGet(2000); // 3000 records over 100 minutes: two partitions
+            }
+            assertTrue(query(history, "EVEN", 0, Long.MAX_VALUE).size() < 1500);
+            history.flush();
+
+            List<String> even = query(history, "EVEN", 0, Long.MAX_VALUE);
+            assertEquals(1500, even.size());
+            assertEquals(start + "=0", even.get(0));
+            assertEquals((start + 2998 * 2000) + "=2998", even.get(1499));
+
+            List<String> range = query(history, "ODD", start + 2001 * 2000, start + 2011 * 2000);
+            assertEquals(List.of((start + 2001 * 2000) + "=2001", (start + 2003 * 2000) + "=2003",
+                    (start + 2005 * 2000) + "=2005", (start + 2007 * 2000) + "=2007",
+                    (start + 2009 * 2000) + "=2009", (start + 2011 * 2000) + "=2011"), range);
+
+            assertEquals(10, query(history, null, start, start + 9 * 2000).size());
+            assertTrue(query(history, "NONE", 0, Long.MAX_VALUE).isEmpty());
+            assertEquals("[]", new String(history.query(null, 0, Long.MAX_VALUE, 0), StandardCharsets.UTF_8));
+            String limited = new String(history.query(null, 0, Long.MAX_VALUE, 2), StandardCharsets.UTF_8);
+            assertEquals(2, limited.split("archivedAt").length - 1);
+            assertEquals(2, segmentFiles().size());
+        }
+    }
+
+    // Test that a reopened store serves sealed segments and recovers from a torn write
+    @Test
+    public void testReopenAndRecoverTornWrite() throws IOException {
+        try (HistoryStore history = open()) {
+            history.append("A", reading("A", 1));
+            history.append("A", reading("A", 2));
+        }
+        Path segment = dir.resolve(segmentFiles().get(0));
+        // A record cut off half way, as left by a crash
+        Files.write(segment, new byte[]{0, 0, 0, 0, 0, 0, 0, 1, 0, 0}, StandardOpenOption.APPEND);
+        long tornSize = Files.size(segment);
+
+        try (HistoryStore history = open()) {
+            assertTrue(Files.size(segment) < tornSize);
+            now.addAndGet(1000);
+            history.append("A", reading("A", 3));
+            history.flush();
+            assertEquals(List.of(now.get() - 1000 + "=1", now.get() - 1000 + "=2", now.get() + "=3"),
+                    query(history, "A", 0, Long.MAX_VALUE));
+            assertEquals(2, history.getSegmentCount());
+        }
+    }
+
+    // Test that compaction merges a closed partition's segments, drops repeated readings,
+    // survives reopening and deletes partitions past retention
+    @Test
+    public void testCompactionAndRetention() throws IOException {
+        long start = now.get();
+        for (int run = 0; run < 3; run++) {
+            try (HistoryStore history = open()) {
+                history.append("A", reading("A", 1)); // the same reading archived three times
+                history.append("B", reading("B", run));
+                now.addAndGet(1000);
+            }
+        }
+        assertEquals(3, segmentFiles().size());
+
+        try (HistoryStore history = open()) {
+            assertEquals(0, history.compact()); // the partition is still open
+            now.addAndGet(HOUR);
+            assertEquals(3, history.compact());
+            assertEquals(1, segmentFiles().size());
+            assertEquals(List.of(start + "=1"), query(history, "A", 0, Long.MAX_VALUE));
+            assertEquals(List.of(start + "=0", start + 1000 + "=1", start + 2000 + "=2"),
+                    query(history, "B", 0, Long.MAX_VALUE));
+        }
+
+        try (HistoryStore history = open()) {
+            assertEquals(4, query(history, null, 0, Long.MAX_VALUE).size());
+            now.addAndGet(7 * DAY);
+            assertEquals(1, history.compact());
+            assertTrue(segmentFiles().isEmpty());
+            assertTrue(query(history, null, 0, Long.MAX_VALUE).isEmpty());
+        }
+    }
+
+    // Test that queries running while compaction replaces a partition's segments still
+    // see every record of the partition
+    @Test
+    public void testQueryDuringCompaction() throws Exception {
+        for (int round = 0; round < 10; round++) {
+            Path roundDir = Files.createDirectory(dir.resolve("round" + round));
+            for (int run = 0; run < 20; run++) {
+                try (HistoryStore history = new HistoryStore(roundDir, HOUR, 7 * DAY, now::get)) {
+                    for (int i = 0; i < 50; i++) {
+                        history.append("S" + i, reading("S" + i, run)); // no repeats to drop
+                    }
+                }
+            }
+            now.addAndGet(HOUR);
+
+            try (HistoryStore history = new HistoryStore(roundDir, HOUR, 7 * DAY, now::get)) {
+                AtomicBoolean compacting = new AtomicBoolean(true);
+                AtomicInteger incomplete = new AtomicInteger();
+                Thread reader = new Thread(() -> {
+                    try {
+                        while (compacting.get()) {
+                            if (query(history, null, 0, Long.MAX_VALUE).size() != 1000) {
+                                incomplete.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        incomplete.incrementAndGet();
+                    }
+                });
+                reader.start();
+                try {
+                    assertEquals(20, history.compact());
+                } finally {
+                    compacting.set(false);
+                    reader.join();
+                }
+                assertEquals(0, incomplete.get(), "queries missing records in round " + round);
+                assertEquals(1000, query(history, null, 0, Long.MAX_VALUE).size());
+            }
+        }
+    }
+
+    // Test that the inputs of a compaction interrupted after its rename are discarded on open
+    @Test
+    public void testInterruptedCompaction() throws IOException {
+        for (int run = 0; run < 2; run++) {
+            try (HistoryStore history = open()) {
+                history.append("A", reading("A", run));
+            }
+        }
+        List<String> inputs = segmentFiles();
+        Path first = dir.resolve(inputs.get(0));
+        Path second = dir.resolve(inputs.get(1));
+        now.addAndGet(HOUR);
+        try (HistoryStore history = open()) {
+            history.compact();
+        }
+        String merged = segmentFiles().get(0);
+        // Put the inputs back as if the process died before deleting them
+        Files.write(first, reading("A", 7));
+        Files.write(second, reading("A", 8));
+
+        try (HistoryStore history = open()) {
+            assertEquals(List.of(merged), segmentFiles());
+            assertEquals(2, query(history, "A", 0, Long.MAX_VALUE).size());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpListenerTest {
+
+    // Accepts connections, recording the acceptor thread and the accepted socket's options
+    private static class Recorder {
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger noDelay = new AtomicInteger();
+        final CountDownLatch accepted;
+
+        Recorder(int connections) {
+            accepted = new CountDownLatch(connections);
+        }
+
+        void accept(Socket socket) {
+            threads.add(Thread.currentThread().getName());
+            try (Socket s = socket) {
+                if (s.getTcpNoDelay()) {
+                    noDelay.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // counted as not accepted
+                return;
+            }
+            accepted.countDown();
+        }
+    }
+
+    private static void connect(int port, int connections) throws IOException {
+        for (int i = 0; i < connections; i++) {
+            try (Socket socket = new Socket("localhost", port)) {
+                assertTrue(socket.isConnected());
+            }
+        }
+    }
+
+    // Test that every acceptor gets its own socket where SO_REUSEPORT is available, that
+    // connections are served by several acceptors and that accepted sockets get TCP_NODELAY
+    @Test
+    public void testAcceptorsWithReusePort() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder(200);
+        HttpListener listener = new HttpListener(0, 4, 512, true, 64 * 1024, 64 * 1024, true, recorder::accept);
+        listener.start();
+        try {
+            assertEquals(HttpListener.supportsReusePort(), listener.usesReusePort());
+            connect(listener.getPort(), 200);
+            assertTrue(recorder.accepted.await(10, TimeUnit.SECONDS));
+            assertEquals(200, recorder.noDelay.get());
+            if (listener.usesReusePort()) {
+                assertTrue(recorder.threads.size() > 1, "connections spread over acceptors: " + recorder.threads);
+            }
+        } finally {
+            listener.stop();
+        }
+    }
+
+    // Test that without SO_REUSEPORT the acceptors share one socket, and that stop() releases the port
+    @Test
+    public void testSharedSocket() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder(20);
+        HttpListener listener = new HttpListener(0, 3, 50, false, 0, 0, false, recorder::accept);
+        listener.start();
+        int port = listener.getPort();
+        try {
+            assertFalse(listener.usesReusePort());
+            connect(port, 20);
+            assertTrue(recorder.accepted.await(10, TimeUnit.SECONDS));
+            assertEquals(0, recorder.noDelay.get());
+        } finally {
+            listener.stop();
+        }
+        try (ServerSocket rebound = new ServerSocket(port)) {
+            assertEquals(port, rebound.getLocalPort());
+        }
+    }
+
+    // Test that an acceptor survives onAccept failing, closing the connection it failed on
+    @Test
+    public void testAcceptorSurvivesHandlerFailure() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder(3);
+        AtomicInteger calls = new AtomicInteger();
+        HttpListener listener = new HttpListener(0, 1, 50, true, 0, 0, false, socket -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("handler pool shut down");
+            }
+            recorder.accept(socket);
+        });
+        listener.start();
+        try {
+            try (Socket failed = new Socket("localhost", listener.getPort())) {
+                failed.setSoTimeout(5000);
+                assertEquals(-1, failed.getInputStream().read());
+            }
+            connect(listener.getPort(), 3);
+            assertTrue(recorder.accepted.await(10, TimeUnit.SECONDS));
+        } finally {
+            listener.stop();
+        }
+    }
+
+    // Test that a port already in use is reported even though SO_REUSEPORT could join it
+    @Test
+    public void testPortInUse() throws IOException {
+        HttpListener first = new HttpListener(0, 2, 50, true, 0, 0, true, socket -> { });
+        first.start();
+        try {
+            HttpListener second = new HttpListener(first.getPort(), 2, 50, true, 0, 0, true, socket -> { });
+            assertThrows(IOException.class, second::start);
+        } finally {
+            first.stop();
+        }
+    }
+}
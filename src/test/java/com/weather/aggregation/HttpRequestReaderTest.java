@@ -0,0 +1,111 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpRequestReaderTest {
+
+    private final BufferPool pool = new BufferPool(1024, 4);
+
+    // Input stream that returns at most a few bytes per read, like a slow socket
+    private static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+
+    private static byte[] request(String head, byte[] body) {
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, data, 0, headBytes.length);
+        System.arraycopy(body, 0, data, headBytes.length, body.length);
+        return data;
+    }
+
+    // Test that Content-Length is honoured as a byte count for multi-byte UTF-8 bodies
+    @Test
+    public void testReadsUtf8BodyByByteCount() throws IOException {
+        byte[] body = "{\"id\":\"IDS60901\",\"name\":\"Zürich – café\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] data = request("PUT /weather.json HTTP/1.1\r\nContent-Length: " + body.length
+                + "\r\nLamport-Clock: 7\r\n\r\n", body);
+
+        HttpRequestReader reader = new HttpRequestReader(trickle(data), pool, 512, 4096);
+        HttpRequest request = reader.readHead();
+        reader.readBody(request);
+
+        assertEquals("PUT", request.getMethod());
+        assertEquals("/weather.json", request.getPath());
+        assertEquals("7", request.getHeader("Lamport-Clock"));
+        assertEquals("{\"id\":\"IDS60901\",\"name\":\"Zürich – café\"}", request.getBodyText());
+        reader.release();
+    }
+
+    // Test bodies larger than the pooled buffer
+    @Test
+    public void testBodyLargerThanPooledBuffer() throws IOException {
+        byte[] body = new byte[5000];
+        Arrays.fill(body, (byte) 'x');
+        byte[] data = request("PUT / HTTP/1.1\r\nContent-Length: 5000\r\n\r\n", body);
+
+        HttpRequestReader reader = new HttpRequestReader(new ByteArrayInputStream(data), pool, 512, 10000);
+        HttpRequest request = reader.readHead();
+        reader.readBody(request);
+
+        assertEquals(5000, request.getBodyLength());
+        assertEquals(5000, request.getBodyText().length());
+        reader.release();
+    }
+
+    // Test that oversized bodies and header blocks are refused with 413
+    @Test
+    public void testSizeLimits() throws IOException {
+        byte[] data = request("PUT / HTTP/1.1\r\nContent-Length: 5000\r\n\r\n", new byte[0]);
+        HttpRequestReader reader = new HttpRequestReader(new ByteArrayInputStream(data), pool, 512, 4096);
+        HttpRequest request = reader.readHead();
+        HttpRequestException tooLarge = assertThrows(HttpRequestException.class, () -> reader.readBody(request));
+        assertEquals(413, tooLarge.getStatus());
+
+        // A turned away request's body is only drained up to the body limit
+        InputStream unread = new ByteArrayInputStream(request("PUT / HTTP/1.1\r\nContent-Length: 1000000000\r\n\r\n",
+                new byte[0]));
+        HttpRequestReader rejected = new HttpRequestReader(unread, pool, 512, 4096);
+        HttpRequest huge = rejected.readHead();
+        assertEquals(413, assertThrows(HttpRequestException.class, () -> rejected.discardBody(huge)).getStatus());
+        InputStream small = new ByteArrayInputStream(request("PUT / HTTP/1.1\r\nContent-Length: 3000\r\n\r\n",
+                new byte[3000]));
+        HttpRequestReader drained = new HttpRequestReader(small, pool, 512, 4096);
+        drained.discardBody(drained.readHead());
+        assertEquals(0, small.available());
+
+        StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 100; i++) {
+            head.append("X-Header-").append(i).append(": some value\r\n");
+        }
+        head.append("\r\n");
+        HttpRequestReader headerReader = new HttpRequestReader(
+                new ByteArrayInputStream(head.toString().getBytes(StandardCharsets.US_ASCII)), pool, 512, 4096);
+        HttpRequestException headerTooLarge = assertThrows(HttpRequestException.class, headerReader::readHead);
+        assertEquals(413, headerTooLarge.getStatus());
+    }
+
+    // Test bare LF line endings and a closed connection
+    @Test
+    public void testBareLineFeedsAndEndOfStream() throws IOException {
+        byte[] data = "GET /metrics HTTP/1.1\nHost: localhost\n\n".getBytes(StandardCharsets.US_ASCII);
+        HttpRequestReader reader = new HttpRequestReader(new ByteArrayInputStream(data), pool, 512, 4096);
+        HttpRequest request = reader.readHead();
+        assertEquals("/metrics", request.getPath());
+        assertEquals("localhost", request.getHeader("host"));
+
+        HttpRequestReader empty = new HttpRequestReader(new ByteArrayInputStream(new byte[0]), pool, 512, 4096);
+        assertNull(empty.readHead());
+    }
+}
@@ -0,0 +1,52 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    // Test that percentiles of a uniform distribution are within bucket precision
+    @Test
+    public void testPercentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000); // 1 us .. 100 ms
+        }
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100_000_000L, histogram.getMax());
+        assertEquals(50_000_000L, histogram.getValueAtPercentile(50), 50_000_000L * 0.07);
+        assertEquals(99_000_000L, histogram.getValueAtPercentile(99), 99_000_000L * 0.07);
+        assertEquals(99_900_000L, histogram.getValueAtPercentile(99.9), 99_900_000L * 0.07);
+    }
+
+    // Test that bucket boundaries are contiguous and cover every value
+    @Test
+    public void testBucketBoundaries() {
+        long previousUpper = -1;
+        for (int i = 0; i < 900; i++) {
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            assertTrue(upper > previousUpper);
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpper + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            previousUpper = upper;
+        }
+    }
+
+    // Test merging per-thread histograms
+    @Test
+    public void testMerge() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(20);
+        second.record(5000);
+
+        first.add(second);
+
+        assertEquals(3, first.getCount());
+        assertEquals(5000, first.getMax());
+        assertEquals(10, first.getValueAtPercentile(1));
+    }
+}
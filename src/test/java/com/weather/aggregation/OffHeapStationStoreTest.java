@@ -0,0 +1,133 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapStationStoreTest {
+
+    private static Map<String, String> reading(String id, String name) {
+        Map<String, String> data = new HashMap<>();
+        data.put("id", id);
+        data.put("name", name);
+        return data;
+    }
+
+    private static Map<String, Map<String, String>> stations(StationStore store) throws IOException {
+        Map<String, Map<String, String>> stations = new HashMap<>();
+        WeatherJsonStreamParser.parse(new ByteArrayInputStream(store.toJson()),
+                station -> stations.put(station.getId(), station.getFields()));
+        return stations;
+    }
+
+    // Test that readings round-trip and replace each other, including across size classes
+    @Test
+    public void testPutAndReplace() throws IOException {
+        OffHeapStationStore store = new OffHeapStationStore(4096);
+        assertEquals("{}", new String(store.toJson(), StandardCharsets.UTF_8));
+
+        store.put("A", reading("A", "Adelaide"));
+        store.put("B", reading("B", "Brisbane"));
+        store.put("A", reading("A", "Adelaide (West Terrace / ngayirdapira) " + "x".repeat(300)));
+        store.put("B", reading("B", "Bris"));
+
+        Map<String, Map<String, String>> stations = stations(store);
+        assertEquals(2, store.size());
+        assertEquals(2, stations.size());
+        assertTrue(stations.get("A").get("name").endsWith("xxx"));
+        assertEquals("Bris", stations.get("B").get("name"));
+    }
+
+    // Test that the index grows and that the output matches the heap store
+    @Test
+    public void testManyStations() throws IOException {
+        OffHeapStationStore offHeap = new OffHeapStationStore(64 * 1024);
+        WeatherStore heap = new WeatherStore();
+        for (int i = 0; i < 5000; i++) {
+            Map<String, String> data = reading("ST" + i, "Station " + i + " é");
+            offHeap.put("ST" + i, data);
+            heap.put("ST" + i, data);
+        }
+
+        assertEquals(5000, offHeap.size());
+        assertEquals(stations(heap), stations(offHeap));
+    }
+
+    // Test that both engines encode the same body in parallel partitions as in one piece
+    @Test
+    public void testParallelParts() throws IOException {
+        OffHeapStationStore offHeap = new OffHeapStationStore(64 * 1024);
+        WeatherStore heap = new WeatherStore();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals("{}", join(heap.toJsonParts(pool, 0)));
+            assertEquals("{}", join(offHeap.toJsonParts(pool, 0)));
+            for (int i = 0; i < 3000; i++) {
+                Map<String, String> data = reading("ST" + i, "Station " + i);
+                offHeap.put("ST" + i, data);
+                heap.put("ST" + i, data);
+            }
+
+            for (StationStore store : List.of(heap, offHeap)) {
+                assertEquals(1, store.toJsonParts(pool, 5000).size());
+                List<byte[]> parts = store.toJsonParts(pool, 1000);
+                assertTrue(parts.size() > 2);
+                assertEquals(new String(store.toJson(), StandardCharsets.UTF_8), join(parts));
+                assertEquals(3000, stations(store).size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String join(List<byte[]> parts) {
+        StringBuilder joined = new StringBuilder();
+        for (byte[] part : parts) {
+            joined.append(new String(part, StandardCharsets.UTF_8));
+        }
+        return joined.toString();
+    }
+
+    // Test that expiry removes old readings, reports them and reuses their slots, and that touch() defers it
+    @Test
+    public void testExpiryReusesSlots() throws IOException {
+        AtomicLong now = new AtomicLong(1_000_000);
+        OffHeapStationStore store = new OffHeapStationStore(4096, WeatherEntry.EXPIRY_MS, now::get);
+        for (int i = 0; i < 1000; i++) {
+            store.put("OLD" + i, reading("OLD" + i, "old"));
+        }
+        long reserved = store.getReservedBytes();
+
+        now.addAndGet(WeatherEntry.EXPIRY_MS / 2);
+        store.put("OLD7", reading("OLD7", "refreshed"));
+        assertTrue(store.touch("OLD8"));
+        assertFalse(store.touch("MISSING"));
+        now.addAndGet(WeatherEntry.EXPIRY_MS / 2 + 1);
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(998, store.removeExpired((id, json) -> {
+            expired.add(id);
+            assertEquals("old", CustomJsonUtils.parseJsonString(new String(json, StandardCharsets.UTF_8)).get("name"));
+        }));
+        assertEquals(998, expired.size());
+        assertEquals(2, store.size());
+        assertEquals("refreshed", stations(store).get("OLD7").get("name"));
+
+        for (int i = 0; i < 998; i++) {
+            store.put("NEW" + i, reading("NEW" + i, "new"));
+        }
+        assertEquals(1000, store.size());
+        assertEquals(1000, stations(store).size());
+        assertEquals(reserved, store.getReservedBytes());
+    }
+}
@@ -0,0 +1,126 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentHashMapTest {
+
+    // Key with a controllable hash code, to force full hash collisions
+    private static final class CollidingKey {
+        final String name;
+        final int hash;
+
+        CollidingKey(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof CollidingKey && ((CollidingKey) other).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Test random puts and removes against a HashMap
+    @Test
+    public void testMatchesHashMap() {
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<>();
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 200000; i++) {
+            String key = "IDS" + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Map<String, Integer> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertEquals(expected, iterated);
+    }
+
+    // Test that older versions are unaffected by later updates
+    @Test
+    public void testSnapshotsAreImmutable() {
+        PersistentHashMap<String, String> before = PersistentHashMap.<String, String>empty()
+                .plus("IDS60901", "Adelaide")
+                .plus("IDS60902", "Darwin");
+
+        PersistentHashMap<String, String> after = before.plus("IDS60903", "Perth").minus("IDS60901");
+
+        assertEquals(2, before.size());
+        assertEquals("Adelaide", before.get("IDS60901"));
+        assertNull(before.get("IDS60903"));
+        assertEquals(2, after.size());
+        assertNull(after.get("IDS60901"));
+        assertEquals("Perth", after.get("IDS60903"));
+    }
+
+    // Test keys whose hash codes are identical
+    @Test
+    public void testHashCollisions() {
+        CollidingKey a = new CollidingKey("a", 7);
+        CollidingKey b = new CollidingKey("b", 7);
+        CollidingKey c = new CollidingKey("c", 7);
+        CollidingKey d = new CollidingKey("d", 7 + (1 << 20));
+
+        PersistentHashMap<CollidingKey, Integer> map = PersistentHashMap.<CollidingKey, Integer>empty()
+                .plus(a, 1).plus(b, 2).plus(c, 3).plus(d, 4).plus(b, 20);
+
+        assertEquals(4, map.size());
+        assertEquals(20, map.get(b));
+        assertEquals(4, map.get(d));
+
+        map = map.minus(a).minus(c);
+        assertEquals(2, map.size());
+        assertNull(map.get(a));
+        assertEquals(20, map.get(b));
+
+        map = map.minus(b).minus(d);
+        assertTrue(map.isEmpty());
+    }
+
+    // Test that visiting the partitions in turn is the same as forEach
+    @Test
+    public void testPartitions() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        assertEquals(0, map.partitionCount());
+        map = map.plus("only", 1);
+        assertEquals(1, map.partitionCount());
+
+        for (int i = 0; i < 10000; i++) {
+            map = map.plus("ST" + i, i);
+        }
+        assertEquals(32, map.partitionCount());
+
+        List<String> all = new ArrayList<>();
+        map.forEach((key, value) -> all.add(key));
+        List<String> partitioned = new ArrayList<>();
+        for (int i = 0; i < map.partitionCount(); i++) {
+            map.forEachInPartition(i, (key, value) -> partitioned.add(key));
+        }
+        assertEquals(10001, partitioned.size());
+        assertEquals(all, partitioned);
+    }
+}
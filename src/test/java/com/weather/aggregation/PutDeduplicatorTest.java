@@ -0,0 +1,74 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PutDeduplicatorTest {
+
+    private static String extractId(String body) {
+        byte[] bytes = ("xx" + body + "yy").getBytes(StandardCharsets.UTF_8);
+        return PutDeduplicator.extractId(bytes, 2, bytes.length - 4);
+    }
+
+    private static PutDeduplicator.Digest digest(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return PutDeduplicator.digest(bytes, 0, bytes.length);
+    }
+
+    // Test that the station ID is found by the byte scan
+    @Test
+    public void testExtractId() {
+        assertEquals("IDS60901", extractId("{\"id\":\"IDS60901\",\"name\":\"Adelaide\"}"));
+        assertEquals("IDS60901", extractId("{\"name\":\"id\", \"id\" : \"IDS60901\"}"));
+        assertEquals("Sète", extractId("{\"id\":\"Sète\"}"));
+        assertNull(extractId("{\"name\":\"Adelaide\"}"));
+        assertNull(extractId("{\"id\":60901}"));
+        assertNull(extractId("{\"id\":\"IDS"));
+    }
+
+    // Test that only a byte-identical body of a stored station counts as a repeat
+    @Test
+    public void testRepeatDetection() {
+        PutDeduplicator deduplicator = new PutDeduplicator();
+        Set<String> stored = new HashSet<>();
+        AtomicInteger writes = new AtomicInteger();
+        String body = "{\"id\":\"A\",\"air_temp\":\"13.3\"}";
+
+        assertFalse(deduplicator.refreshIfRepeat("A", digest(body), stored::contains));
+        deduplicator.store("A", digest(body), () -> {
+            stored.add("A");
+            return writes.incrementAndGet();
+        });
+
+        assertTrue(deduplicator.refreshIfRepeat("A", digest(body), stored::contains));
+        assertFalse(deduplicator.refreshIfRepeat("A", digest("{\"id\":\"A\",\"air_temp\":\"13.4\"}"), stored::contains));
+        assertFalse(deduplicator.refreshIfRepeat("B", digest(body), stored::contains));
+
+        // A station that expired from the store is stored again in full
+        stored.remove("A");
+        assertFalse(deduplicator.refreshIfRepeat("A", digest(body), stored::contains));
+        assertEquals(1, writes.get());
+    }
+
+    // Test that writes without a digest (binary ingest) and forget() end deduplication
+    @Test
+    public void testUntrackedStoreAndForget() {
+        PutDeduplicator deduplicator = new PutDeduplicator();
+        String body = "{\"id\":\"A\"}";
+
+        deduplicator.store("A", digest(body), () -> 1);
+        assertTrue(deduplicator.refreshIfRepeat("A", digest(body), id -> true));
+        assertEquals(2, deduplicator.store("A", null, () -> 2));
+        assertFalse(deduplicator.refreshIfRepeat("A", digest(body), id -> true));
+
+        deduplicator.store("A", digest(body), () -> 3);
+        deduplicator.forget("A");
+        assertFalse(deduplicator.refreshIfRepeat("A", digest(body), id -> true));
+    }
+}
@@ -0,0 +1,76 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherFileParserTest {
+
+    private static List<Map<String, String>> parse(String content, int windowSize) throws IOException {
+        Path file = Files.createTempFile("weather", ".txt");
+        try {
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            List<Map<String, String>> records = new ArrayList<>();
+            long count = new WeatherFileParser(windowSize).parse(file, records::add);
+            assertEquals(records.size(), count);
+            return records;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Test that a single-station file parses like the original line reader did
+    @Test
+    public void testSingleRecord() throws IOException {
+        List<Map<String, String>> records = parse(
+                "id:IDS60901\nname: Adelaide (West Terrace / ngayirdapira) \r\nstate:SA\nlocal_date_time:15/04:00pm", 1024);
+
+        assertEquals(1, records.size());
+        assertEquals("IDS60901", records.get(0).get("id"));
+        assertEquals("Adelaide (West Terrace / ngayirdapira)", records.get(0).get("name"));
+        assertEquals("15/04:00pm", records.get(0).get("local_date_time")); // split on the first ':' only
+    }
+
+    // Test that records are split on blank lines and on a repeated id
+    @Test
+    public void testRecordBoundaries() throws IOException {
+        List<Map<String, String>> records = parse(
+                "id:A\nstate:SA\n\n\n  \nid:B\nstate:VIC\nid:C\nname:Côte\n\n", 1024);
+
+        assertEquals(3, records.size());
+        assertEquals("A", records.get(0).get("id"));
+        assertEquals("VIC", records.get(1).get("state"));
+        assertEquals("Côte", records.get(2).get("name"));
+        assertFalse(records.get(2).containsKey("state"));
+    }
+
+    // Test that lines crossing a mapping window boundary are remapped and parsed whole
+    @Test
+    public void testSmallWindows() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("id:ST").append(i).append("\nair_temp:").append(i % 40).append(".5\n");
+        }
+        List<Map<String, String>> records = parse(content.toString(), 16);
+
+        assertEquals(200, records.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("ST" + i, records.get(i).get("id"));
+            assertEquals((i % 40) + ".5", records.get(i).get("air_temp"));
+        }
+    }
+
+    // Test that a line longer than the window is reported instead of looping
+    @Test
+    public void testLineLongerThanWindow() {
+        assertThrows(IOException.class, () -> parse("name:" + "x".repeat(64) + "\nid:A\n", 16));
+    }
+}
@@ -0,0 +1,83 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherJsonStreamParserTest {
+
+    private static List<WeatherStation> parse(String json) throws IOException {
+        InputStream body = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        List<WeatherStation> stations = new ArrayList<>();
+        long count = WeatherJsonStreamParser.parse(body, stations::add);
+        assertEquals(stations.size(), count);
+        return stations;
+    }
+
+    // Test that a GET response as written by the server parses into station objects
+    @Test
+    public void testServerResponse() throws IOException {
+        Map<String, String> adelaide = new HashMap<>();
+        adelaide.put("id", "IDS60901");
+        adelaide.put("name", "Adelaide (West Terrace / ngayirdapira)");
+        adelaide.put("air_temp", "13.3");
+        String json = "{\"IDS60901\":" + CustomJsonUtils.createJsonString(adelaide) + "}";
+
+        List<WeatherStation> stations = parse(json);
+
+        assertEquals(1, stations.size());
+        assertEquals("IDS60901", stations.get(0).getId());
+        assertEquals(adelaide, stations.get(0).getFields());
+    }
+
+    // Test whitespace, escapes, numbers and literals
+    @Test
+    public void testValueForms() throws IOException {
+        List<WeatherStation> stations = parse(" {\n \"A\" : { \"name\" : \"Say \\\"hi\\\" \\u00e9\", \"temp\": -3.5 , \"ok\":true },"
+                + "\"B\":{}}\n");
+
+        assertEquals(Arrays.asList("A", "B"), Arrays.asList(stations.get(0).getId(), stations.get(1).getId()));
+        assertEquals("Say \"hi\" é", stations.get(0).get("name"));
+        assertEquals("-3.5", stations.get(0).get("temp"));
+        assertEquals("true", stations.get(0).get("ok"));
+        assertTrue(stations.get(1).getFields().isEmpty());
+        assertTrue(parse("{}").isEmpty());
+    }
+
+    // Test that responses larger than the read buffer stream through in order
+    @Test
+    public void testLargeResponse() throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) {
+                json.append(",");
+            }
+            json.append("\"ST").append(i).append("\":{\"id\":\"ST").append(i).append("\",\"air_temp\":\"").append(i % 40).append("\"}");
+        }
+        json.append("}");
+
+        List<WeatherStation> stations = parse(json.toString());
+
+        assertEquals(5000, stations.size());
+        assertEquals("ST4999", stations.get(4999).get("id"));
+        assertEquals("39", stations.get(39).get("air_temp"));
+    }
+
+    // Test that truncated or malformed bodies are reported
+    @Test
+    public void testMalformed() {
+        assertThrows(IOException.class, () -> parse("{\"A\":{\"id\":\"A\""));
+        assertThrows(IOException.class, () -> parse("{\"A\":{\"id\":[1]}}"));
+        assertThrows(IOException.class, () -> parse("[]"));
+    }
+}